@@ -0,0 +1,210 @@
+package me.sharik.blockjr;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles a block chain into the compact binary program sent to the robot.
+ *
+ * Layout: {@link #MAGIC}, {@link #VERSION}, varint op count, then per op one opcode byte followed
+ * by an unsigned LEB128 varint argument in seconds. A typical command takes 2 bytes instead of the
+ * 6 to 9 of its text form ({@code up(3)_}).
+ *
+ * The peephole pass follows executeBlocks in blockExecutor.ts: an up/down followed by a delay takes
+ * the delay as its argument (otherwise 0), and a missing or non-numeric delay counts as 1. On top of
+ * that adjacent standalone delays are merged and "green-flag", the start marker, emits nothing.
+ *
+ * Programs are identified by the CRC-32 of their code; a robot that stored a program runs it again
+ * from {@link #RUN_CACHED} followed by that hash (big-endian), 5 bytes regardless of program size.
+ */
+final class BlockProgramCompiler {
+
+    static final int MAGIC = 0xb1;
+    static final int VERSION = 1;
+    static final int RUN_CACHED = 0xb3;
+
+    static final int OP_UP = 0x01;
+    static final int OP_DOWN = 0x02;
+    static final int OP_DELAY = 0x03;
+
+    static final int MAX_BLOCKS = 1024;
+    static final int MAX_ARG = 0xffff; // longer merged delays are split
+
+    private static final int DEFAULT_DELAY = 1;
+
+    /**
+     * A compiled program; {@code code} must not be modified.
+     */
+    static final class Program {
+        final byte[] code;
+        final int hash;
+        final int blocks;
+        private final int[] ops;
+        private final int[] args;
+
+        private Program(byte[] code, int blocks, int[] ops, int[] args) {
+            this.code = code;
+            CRC32 crc = new CRC32();
+            crc.update(code, 0, code.length);
+            this.hash = (int) crc.getValue();
+            this.blocks = blocks;
+            this.ops = ops;
+            this.args = args;
+        }
+
+        String hashHex() {
+            return String.format("%08x", hash);
+        }
+
+        int opCount() {
+            return ops.length;
+        }
+
+        int op(int i) {
+            return ops[i];
+        }
+
+        int arg(int i) {
+            return args[i];
+        }
+
+        /**
+         * @return the text form executeBlocks sends, e.g. {@code up(3)_delay(2)}, for firmware without binary support
+         */
+        String toText() {
+            StringBuilder sb = new StringBuilder(ops.length * 9);
+            for (int i = 0; i < ops.length; i++) {
+                if (i > 0)
+                    sb.append('_');
+                sb.append(opName(ops[i])).append('(').append(args[i]).append(')');
+            }
+            return sb.toString();
+        }
+    }
+
+    private BlockProgramCompiler() {
+    }
+
+    /**
+     * @param blocks the chain in execution order, entries {@code { type, value }}; null entries are skipped
+     * @throws IllegalArgumentException on unknown block types, invalid values or more than {@link #MAX_BLOCKS} blocks
+     */
+    static Program compile(JSONArray blocks) {
+        int n = blocks.length();
+        if (n > MAX_BLOCKS)
+            throw new IllegalArgumentException("program exceeds " + MAX_BLOCKS + " blocks");
+        int[] ops = new int[n];
+        int[] args = new int[n];
+        int count = 0;
+        int i = 0;
+        while (i < n) {
+            JSONObject block = blocks.optJSONObject(i);
+            if (block == null) {
+                i++;
+                continue;
+            }
+            String type = block.optString("type", "");
+            switch (type) {
+                case "up":
+                case "down": {
+                    int op = "up".equals(type) ? OP_UP : OP_DOWN;
+                    JSONObject next = blocks.optJSONObject(i + 1);
+                    if (next != null && "delay".equals(next.optString("type", ""))) {
+                        ops[count] = op;
+                        args[count++] = delayOf(next, i + 1);
+                        i += 2;
+                    } else {
+                        ops[count] = op;
+                        args[count++] = 0;
+                        i += 1;
+                    }
+                    break;
+                }
+                case "delay": {
+                    int delay = delayOf(block, i);
+                    if (count > 0 && ops[count - 1] == OP_DELAY && args[count - 1] + delay <= MAX_ARG) {
+                        args[count - 1] += delay;
+                    } else {
+                        ops[count] = OP_DELAY;
+                        args[count++] = delay;
+                    }
+                    i += 1;
+                    break;
+                }
+                case "green-flag":
+                    i += 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown block type '" + type + "' at " + i);
+            }
+        }
+        ops = Arrays.copyOf(ops, count);
+        args = Arrays.copyOf(args, count);
+        return new Program(encode(ops, args), n, ops, args);
+    }
+
+    /**
+     * @return the packet telling the robot to run its stored program {@code hash}
+     */
+    static byte[] runCached(int hash) {
+        return new byte[] { (byte) RUN_CACHED, (byte) (hash >>> 24), (byte) (hash >>> 16), (byte) (hash >>> 8), (byte) hash };
+    }
+
+    private static int delayOf(JSONObject block, int index) {
+        Object value = block.opt("value");
+        double seconds;
+        if (value instanceof Number) {
+            seconds = ((Number) value).doubleValue();
+        } else {
+            // Number(value) || 1
+            try {
+                seconds = value instanceof String ? Double.parseDouble(((String) value).trim()) : DEFAULT_DELAY;
+            } catch (NumberFormatException e) {
+                seconds = DEFAULT_DELAY;
+            }
+            if (seconds == 0 || Double.isNaN(seconds))
+                seconds = DEFAULT_DELAY;
+        }
+        if (seconds < 0 || seconds > MAX_ARG || seconds != Math.rint(seconds))
+            throw new IllegalArgumentException("delay at " + index + " must be a whole number of seconds in 0.." + MAX_ARG);
+        return (int) seconds;
+    }
+
+    private static byte[] encode(int[] ops, int[] args) {
+        byte[] code = new byte[2 + 3 + ops.length * 4];
+        int pos = 0;
+        code[pos++] = (byte) MAGIC;
+        code[pos++] = (byte) VERSION;
+        pos = putVarint(code, pos, ops.length);
+        for (int i = 0; i < ops.length; i++) {
+            code[pos++] = (byte) ops[i];
+            pos = putVarint(code, pos, args[i]);
+        }
+        return Arrays.copyOf(code, pos);
+    }
+
+    private static int putVarint(byte[] dst, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            dst[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    static String opName(int op) {
+        switch (op) {
+            case OP_UP:
+                return "up";
+            case OP_DOWN:
+                return "down";
+            case OP_DELAY:
+                return "delay";
+            default:
+                return "op" + op;
+        }
+    }
+}
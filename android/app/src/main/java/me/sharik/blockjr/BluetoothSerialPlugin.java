@@ -4,13 +4,20 @@ package me.sharik.blockjr; // <-- REPLACE with your package name
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Base64;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
@@ -20,13 +27,26 @@ import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 import com.getcapacitor.annotation.PluginMethod;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 /**
  * Minimal Capacitor plugin wrapper around Android Bluetooth APIs.
@@ -34,19 +54,83 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Exposes methods:
  * - isEnabled() -> { enabled: boolean }
  * - enable() -> { enabled: boolean } (fires an ACTION_REQUEST_ENABLE intent)
- * - scan() -> { devices: [ { id, name } ] }  (performs discovery and resolves when discovery finishes or timeout)
- * - connect({ address }) -> resolves true/false
- * - disconnect() -> resolves
- * - write({ value }) -> resolves
+ * - scan() -> { devices: [ { id, name, rssi, lastSeen } ] }  (performs discovery and resolves when discovery finishes or timeout;
+ *     one entry per address, strongest signal first)
+ * - startScan({ timeoutMs }) -> { scanning: true } (resolves once discovery runs; devices arrive as "deviceFound" events)
+ * - stopScan() -> { devices } (cancels discovery)
+ * - setConnectOptions({ timeoutMs, strategies: [ "secure", "insecure", "channel" ] }) -> resolves
+ *     connect tries the strategies in order with timeoutMs each (default 4000), starting with the one that
+ *     worked for the device last time
+ * - setAutoReconnect({ enabled, maxAttempts, baseDelayMs, maxDelayMs, jitter }) -> resolves (off by default)
+ *     after an unexpected link loss the last device is re-dialed with exponential backoff and jitter
+ *     ({@link Reconnector}); writes meanwhile are buffered and sent once reconnected
+ * - getKnownDevices() -> { devices: [ { id, name, bonded, lastConnected } ], lastConnectedId }
+ *     bonded devices plus robots connected before (remembered in {@link DeviceStore}), most recently connected first;
+ *     no discovery needed
+ * - connect({ address }) -> resolves true/false; up to {@link SerialService#MAX_CONNECTIONS} robots stay connected
+ *     at once, each with its own reader, writer, state and stats. Calls below that act on one robot take an optional
+ *     address and default to the robot connected last
+ * - disconnect({ address }) -> resolves (without address: every robot)
+ * - getConnections() -> { connections: [ { address, name, state, since } ], primary } (primary: the default address)
+ * - isConnected() -> { connected } and getState() -> { state, address, since }, answered from {@link ConnectionState}
+ *     without a round trip to the socket; state: "idle" | "connecting" | "connected" | "reconnecting" | "closed"
+ * - sendIfConnected({ value } | { base64 }) -> { sent, state } (write only if connected, in one bridge call;
+ *     resolves sent: false instead of rejecting when not connected)
+ * - write({ value }) -> resolves (value is sent UTF-8 encoded)
+ * - writeBytes({ base64 } | { data: number[] }) -> resolves
+ *   writes are queued to a writer thread and resolve once flushed; they reject when the queue is full
+ * - broadcast({ addresses, value } | { addresses, base64 }) -> { robots: [ { address, sent, queuedMs, startMs, writtenMs, error } ],
+ *     sent, startSkewMs, writtenSkewMs } queues the payload on every robot's writer back to back ({@link Broadcast}), so the
+ *     writer threads send it in parallel; times since the fan-out started, skews as max - min over the robots that got it.
+ *     Without addresses: every connected robot. Resolves once all robots are done; failed robots carry an error
+ * - setWriteQueue({ capacity, policy: "reject" | "block", blockTimeoutMs }) -> resolves (applies from the next connect)
+ * - writeAndAwait({ value, terminator, timeoutMs }) -> { value } (the robot's response up to the terminator,
+ *     matched in order so several commands can be pending; rejects with "timeout")
+ * - setWriteCoalescing({ windowMs, maxBytes }) -> resolves (windowMs 0 disables, the default)
+ * - getThreadStats() -> { live, created, poolSize, activeTasks }
+ * - getWriteStats() -> { queueDepth, capacity, policy, written, packets, rejected, latencyMs: { count, mean, p50, p90, p99, max } }
+ * - getStats({ reset }) -> { address, state, bytesRead, bytesWritten, readChunks, dataEvents, writes, packets, rejectedWrites,
+ *     connects, connectFailures, linkLosses, reconnects, connectMs, writeToFlushMs, readChunkBytes, dispatchMs }
+ *     (histograms as { count, mean, p50, p90, p99, max }); counters since load or the last reset, see {@link LinkStats}
+ * - setStatsInterval({ intervalMs }) -> resolves; emits "stats" every intervalMs, 0 stops (the default)
+ * - setDataBatching({ maxBytes, maxDelayMs }) -> { enabled, maxBytes, maxDelayMs } (0 disables batching)
+ * - setFraming({ mode, delimiter, lengthBytes, maxFrameBytes, encoding }) -> resolves
+ *     mode: "raw" (default) | "line" | "length" | "cobs" | "slip", encoding: "utf8" (default) | "base64"
+ * - getDataBatchingStats() -> { address, batches, bytes, largestBatch, flushes: { immediate, size, deadline, close } }
+ * - runProgram({ blocks: [ { type, value } ], format: "binary" (default) | "text" }) -> { bytes, ops, blocks, hash, cached }
+ *     compiles the chain with {@link BlockProgramCompiler} and writes it; "text" sends the legacy up(3)_delay(2) form.
+ *     If the robot stored the program (uploadProgram), binary only sends "run cached #hash" (cached: true)
+ * - uploadProgram({ blocks, chunkSize, window, ackTimeoutMs, maxRetries }) -> { bytes, hash, chunks, retransmits }
+ *     sends the binary program in acknowledged chunks with a sliding window ({@link ProgramUpload}), one upload at a time;
+ *     the robot stores it under its hash
+ * - getProgramCacheStats() -> { programs, hits, misses }
+ * - setHandshake({ enabled, timeoutMs }) -> resolves; when enabled, every connect asks the robot for its firmware
+ *     version and stored program ({@link DeviceHandshake}), remembered per address across sessions
+ * - getDeviceInfo({ address }) -> { address, known, firmware, programHash, checkedAt, strategy }
+ * - startCapture({ address, maxBytes }) -> { path } records every chunk read and written, with its time, to a memory-mapped
+ *     file ({@link TrafficCapture}, default limit 16 MiB); works mid-connection and across reconnects
+ * - stopCapture({ address }) -> { path, records, bytes, dropped }
+ * - replayCapture({ path, speed }) -> resolves like connect; connects to the capture instead of a robot and delivers
+ *     its reads again at speed times the original pace, 0 without delays ({@link ReplayTransport}); "disconnect" at the end
  *
- * Emits events with notifyListeners:
- * - "data" -> { value: "..." }
- * - "disconnect" -> {}
+ * Emits events with notifyListeners; events about a connection carry its address:
+ * - "data" -> { address, value: "..." } (one event per drained chunk or batch, or per complete frame when framing is set)
+ * - "deviceFound" -> { id, name, rssi } (as soon as discovery reports it, during scan() and startScan();
+ *     again only if its name becomes known)
+ * - "scanFinished" -> { devices } (discovery finished, timed out or was stopped)
+ * - "connectionState" -> { state, previous, address, since } (on every transition, lets the UI cache the state)
+ * - "disconnect" -> { address } (with auto-reconnect only once reconnecting gave up)
+ * - "reconnecting" -> { address, attempt, delayMs }
+ * - "reconnected" -> { address, attempts, flushedWrites }
+ * - "uploadProgress" -> { address, acked, total } (chunks acknowledged by the robot)
+ * - "deviceInfo" -> { address, known, firmware, programHash, checkedAt } (handshake reply after connect)
+ * - "stats" -> same as getStats(), one per robot (only after setStatsInterval)
  * - "enabledChange" -> { enabled: boolean }
  *
  * NOTE: This is a minimal, pragmatic implementation intended to work with the existing JS UI.
- * It uses RFCOMM SPP UUID for connect. If you have a different socket abstraction in SimpleBluetoothTerminal,
- * you can replace the connect/read logic with the project's SerialSocket classes.
+ * The connections themselves are owned by {@link SerialService} (a SerialSocket over RFCOMM SPP per robot),
+ * which the plugin binds to. The service keeps the links in the foreground while the WebView is backgrounded,
+ * so connect() to an already connected address resolves immediately instead of dialing again.
  */
 @CapacitorPlugin(name = "BluetoothSerial")
 public class BluetoothSerialPlugin extends Plugin {
@@ -54,20 +138,506 @@ public class BluetoothSerialPlugin extends Plugin {
     private static final String TAG = "BluetoothSerialPlugin";
     private final BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
 
-    // Discovery
-    private final ArrayList<JSObject> discoveredDevices = new ArrayList<>();
+    // Discovery; the receiver, the timeout and finishDiscovery() run on the main thread
+    private static final long SCAN_TIMEOUT_MS = 8000;
+    private static final long STREAMING_SCAN_TIMEOUT_MS = 12000; // a full inquiry takes about 12 s
+    private final DiscoveryRegistry discoveredDevices = new DiscoveryRegistry();
     private BroadcastReceiver discoveryReceiver;
     private final AtomicBoolean discoveryInProgress = new AtomicBoolean(false);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile PluginCall scanCall = null; // scan() waiting for the end of discovery
+    private final Runnable discoveryTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!discoveryInProgress.get())
+                return;
+            try {
+                btAdapter.cancelDiscovery();
+            } catch (Exception ignored) {}
+            finishDiscovery();
+        }
+    };
+
+    // Connections, owned by SerialService; service and every link's connectCall are guarded by serviceLock
+    private final Object serviceLock = new Object();
+    private SerialService service = null;
+    private final ArrayList<Runnable> pendingServiceActions = new ArrayList<>(); // run once bound
+    // every robot connected since load; a link outlives its connection and keeps its stats.
+    // The primary link, target of calls without an address, is the last one connected
+    private final LinkRegistry<RobotLink> links = new LinkRegistry<>(SerialService.MAX_CONNECTIONS,
+            new LinkRegistry.Factory<RobotLink>() {
+                @Override
+                public RobotLink create(String address) {
+                    // under the registry's lock, like every change of the read delivery settings
+                    RobotLink link = new RobotLink(address);
+                    link.batcher.configure(batchMaxBytes, batchMaxDelayMs);
+                    link.setFraming(newFramer(), base64Frames);
+                    return link;
+                }
+            });
+    private final SerialService.Listeners serviceListeners = new SerialService.Listeners() {
+        @Override
+        public SerialListener forAddress(String address) {
+            return links.get(address);
+        }
+    };
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            ArrayList<Runnable> actions;
+            List<String> surviving;
+            synchronized (serviceLock) {
+                service = ((SerialService.SerialBinder) binder).getService();
+                surviving = service.getConnectedAddresses(); // links that outlived the previous WebView
+                for (String address : surviving)
+                    links.obtain(address);
+                service.attach(serviceListeners);
+                actions = new ArrayList<>(pendingServiceActions);
+                pendingServiceActions.clear();
+            }
+            for (String address : surviving) {
+                links.get(address).state.moveTo(ConnectionState.State.CONNECTED, address);
+                if (links.primary() == null)
+                    links.setPrimary(address);
+            }
+            for (Runnable action : actions)
+                action.run();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            synchronized (serviceLock) {
+                service = null;
+            }
+        }
+    };
+
+    // Writes; the settings apply to every link from its next connect
+    private final SerialWriter.Settings writerSettings = new SerialWriter.Settings();
+    private ScheduledFuture<?> statsTask = null; // periodic "stats" events, guarded by links
+    // for writes confirmed by the robot's reply (upload ACKs, handshake) rather than by the flush
+    private static final SerialWriter.Callback NO_OP_WRITE_CALLBACK = new SerialWriter.Callback() {
+        @Override
+        public void onWritten() {}
+
+        @Override
+        public void onFailed(IOException e) {}
+    };
+
+    // Timers (batch deadlines, response timeouts, redials) of all links; I/O threads belong to SerialService
+    private final SerialThreadFactory timerThreadFactory = new SerialThreadFactory(TAG);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(timerThreadFactory);
+    private final TimeoutWheel timeoutWheel = new TimeoutWheel(scheduler, 10, 512);
+
+    // Read delivery of every link (setDataBatching, setFraming), guarded by links
+    private int batchMaxBytes = 0;
+    private int batchMaxDelayMs = 0;
+    private String framingMode = "raw";
+    private byte framingDelimiter = '\n';
+    private int framingLengthBytes = 1;
+    private int framingMaxFrameBytes = SerialFramer.DEFAULT_MAX_FRAME_BYTES;
+    private boolean base64Frames = false;
+    private final ProgramCache programCache = new ProgramCache(ProgramCache.DEFAULT_MAX_PROGRAMS);
+
+    // Dialing
+    private volatile long connectTimeoutMs = RfcommTransport.DEFAULT_TIMEOUT_MS;
+    private volatile RfcommTransport.Strategy[] connectStrategies = RfcommTransport.DEFAULT_STRATEGIES;
+
+    // Auto-reconnect after link loss, opt-in via setAutoReconnect; each link redials on its own
+    private final Reconnector.Policy reconnectPolicy = new Reconnector.Policy();
+
+    // Post-connect handshake, off until the firmware speaks the binary protocol
+    private DeviceStore deviceStore;
+    private volatile boolean handshakeEnabled = false;
+    private volatile long handshakeTimeoutMs = DeviceHandshake.DEFAULT_TIMEOUT_MS;
+
+    /**
+     * One robot, or a replayed capture: its connection state and everything bound to the connection
+     * except the socket, which SerialService owns. Events it emits carry its address.
+     */
+    private final class RobotLink implements SerialListener, LinkRegistry.Link {
+        final String address;
+        final ConnectionState state = new ConnectionState(new ConnectionState.Listener() {
+            @Override
+            public void onStateChanged(ConnectionState.Snapshot previous, ConnectionState.Snapshot current) {
+                JSObject o = stateJson(current);
+                o.put("previous", previous.state.jsName());
+                notifyListeners("connectionState", o);
+            }
+        });
+        final SerialWriter.Stats writerStats = new SerialWriter.Stats();
+        final LinkStats stats = new LinkStats();
+        final DataBatcher batcher = new DataBatcher(this, scheduler);
+        final ResponseMatcher responses = new ResponseMatcher(timeoutWheel);
+        final Reconnector reconnector;
+        final AtomicReference<TrafficCapture> capture = new AtomicReference<>(); // startCapture
+        PluginCall connectCall = null;
+        volatile ProgramUpload upload = null; // at most one chunked upload in flight per robot
+        volatile DeviceHandshake handshake = null;
+        volatile RfcommTransport dialing = null; // last transport handed to the service
+        volatile boolean replaying = false; // the link is a ReplayTransport
+        volatile long dialStartedNanos = 0;
+
+        // Framing, guarded by frameLock since batches and chunks may arrive on different threads
+        private final Object frameLock = new Object();
+        private final Utf8StreamDecoder utf8Decoder = new Utf8StreamDecoder();
+        private SerialFramer framer = null;
+        private boolean base64 = false;
+        private final SerialFramer.FrameListener frameListener = new SerialFramer.FrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int off, int len) {
+                JSObject o = event();
+                o.put("value", base64
+                        ? Base64.encodeToString(frame, off, len, Base64.NO_WRAP)
+                        : utf8Decoder.decodeFrame(frame, off, len));
+                stats.dataEvents.increment();
+                notifyListeners("data", o);
+            }
+        };
+
+        RobotLink(String address) {
+            this.address = address;
+            reconnector = new Reconnector(scheduler, reconnectPolicy,
+                    new Reconnector.Dialer() {
+                        @Override
+                        public void dial(String ignored) {
+                            withService(new Runnable() {
+                                @Override
+                                public void run() {
+                                    SerialService s;
+                                    synchronized (serviceLock) {
+                                        s = service;
+                                    }
+                                    if (s == null || btAdapter == null)
+                                        reconnector.onConnectFailed();
+                                    else
+                                        RobotLink.this.dial(s);
+                                }
+                            });
+                        }
+                    },
+                    new Reconnector.Listener() {
+                        @Override
+                        public void onReconnecting(String address, int attempt, long delayMs) {
+                            JSObject o = event();
+                            o.put("attempt", attempt);
+                            o.put("delayMs", delayMs);
+                            notifyListeners("reconnecting", o);
+                        }
+
+                        @Override
+                        public void onReconnected(String address, int attempts, List<Reconnector.PendingWrite> buffered) {
+                            stats.reconnects.increment();
+                            SerialService s = connectedService();
+                            for (Reconnector.PendingWrite write : buffered) {
+                                try {
+                                    if (s == null || !s.write(address, write.data, write.callback))
+                                        write.callback.onFailed(new IOException("write queue full"));
+                                } catch (IOException e) {
+                                    write.callback.onFailed(e);
+                                }
+                            }
+                            JSObject o = event();
+                            o.put("attempts", attempts);
+                            o.put("flushedWrites", buffered.size());
+                            notifyListeners("reconnected", o);
+                        }
+
+                        @Override
+                        public void onGaveUp(String address, int attempts) {
+                            Log.i(TAG, "reconnect to " + address + " failed after " + attempts + " attempts");
+                            if (state.moveFrom(ConnectionState.State.RECONNECTING, ConnectionState.State.CLOSED))
+                                closeConnection();
+                            notifyListeners("disconnect", event());
+                        }
+                    });
+        }
+
+        @Override
+        public void onSerialConnect() {
+            resetFraming();
+            SerialService s = connectedService();
+            // a replayed capture is not a robot: nothing to remember, redial or ask
+            boolean robot = s != null && !replaying;
+            if (robot)
+                rememberConnection(address, s.getName(address), connectedStrategy());
+            stats.connects.increment();
+            long started = dialStartedNanos;
+            if (started != 0)
+                stats.connectTime.recordNanos(System.nanoTime() - started);
+            state.moveTo(ConnectionState.State.CONNECTED, address);
+            resolveConnect(true);
+            if (robot) {
+                reconnector.onConnected(address);
+                if (handshakeEnabled)
+                    startHandshake(s);
+            }
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+            Log.e(TAG, "connect to " + address + " failed", e);
+            stats.connectFailures.increment();
+            if (!reconnector.onConnectFailed()) {
+                if (state.moveFrom(ConnectionState.State.CONNECTING, ConnectionState.State.CLOSED))
+                    closeConnection();
+                resolveConnect(false);
+            }
+        }
+
+        @Override
+        public void onSerialRead(byte[] data) {
+            stats.onRead(data.length);
+            DeviceHandshake h = handshake;
+            if (h != null)
+                h.feed(data, 0, data.length);
+            ProgramUpload u = upload;
+            if (u != null)
+                u.feed(data, 0, data.length);
+            responses.feed(data, 0, data.length);
+            if (batcher.isEnabled())
+                batcher.onSerialRead(data);
+            else
+                emitData(data, 0, data.length);
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            if (datas.size() == 1) {
+                byte[] data = datas.peek();
+                emitData(data, 0, data.length);
+                return;
+            }
+            int len = 0;
+            for (byte[] data : datas)
+                len += data.length;
+            byte[] joined = new byte[len];
+            int pos = 0;
+            for (byte[] data : datas) {
+                System.arraycopy(data, 0, joined, pos, data.length);
+                pos += data.length;
+            }
+            emitData(joined, 0, len);
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            Log.i(TAG, "connection to " + address + " lost", e);
+            // the service has already dropped the connection if the user disconnected from the notification
+            SerialService s;
+            synchronized (serviceLock) {
+                s = service;
+            }
+            boolean userDisconnect = s == null || !s.hasConnection(address) || replaying;
+            if (!userDisconnect)
+                stats.linkLosses.increment();
+            if (!userDisconnect && reconnector.onLinkLost()) {
+                s.holdForReconnect(address);
+                state.moveTo(ConnectionState.State.RECONNECTING, null);
+                release();
+            } else
+                onDisconnected();
+        }
+
+        JSObject event() {
+            JSObject o = new JSObject();
+            o.put("address", address);
+            return o;
+        }
+
+        @Nullable
+        SerialService connectedService() {
+            synchronized (serviceLock) {
+                return service != null && service.isConnected(address) ? service : null;
+            }
+        }
+
+        /**
+         * @return true if writes can be accepted now, directly or buffered for a reconnect
+         */
+        boolean writable() {
+            ConnectionState.State s = state.get().state;
+            return s == ConnectionState.State.CONNECTED || s == ConnectionState.State.RECONNECTING;
+        }
+
+        /**
+         * @return true while connecting, connected or reconnecting, i.e. holding one of the piconet's slots
+         */
+        @Override
+        public boolean isActive() {
+            return writable() || state.is(ConnectionState.State.CONNECTING);
+        }
 
-    // Connection
-    private BluetoothSocket socket = null;
-    private BluetoothDevice connectedDevice = null;
-    private Thread readThread = null;
-    private final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+        void dial(SerialService s) {
+            RfcommTransport.Strategy[] strategies = connectStrategies;
+            DeviceStore.Record record = deviceStore.get(address);
+            if (record != null && record.strategy != null) {
+                try {
+                    strategies = RfcommTransport.preferring(strategies, RfcommTransport.Strategy.valueOf(record.strategy));
+                } catch (IllegalArgumentException ignored) {}
+            }
+            RfcommTransport transport = new RfcommTransport(btAdapter.getRemoteDevice(address), strategies,
+                    connectTimeoutMs, scheduler);
+            dialing = transport;
+            replaying = false;
+            dialStartedNanos = System.nanoTime();
+            s.connect(new CapturingTransport(transport, capture), writerSettings, writerStats);
+        }
+
+        @Nullable
+        private RfcommTransport.Strategy connectedStrategy() {
+            RfcommTransport t = dialing;
+            return t != null ? t.getConnectedStrategy() : null;
+        }
+
+        void resolveConnect(boolean connected) {
+            PluginCall call;
+            synchronized (serviceLock) {
+                call = connectCall;
+                connectCall = null;
+            }
+            if (call != null) {
+                JSObject res = new JSObject();
+                res.put("connected", connected);
+                call.resolve(res);
+            }
+        }
+
+        void onDisconnected() {
+            closeConnection();
+            state.moveTo(ConnectionState.State.CLOSED, null);
+            release();
+            notifyListeners("disconnect", event());
+        }
+
+        // frees the service's slot for this robot
+        private void closeConnection() {
+            SerialService s;
+            synchronized (serviceLock) {
+                s = service;
+            }
+            if (s != null)
+                s.disconnect(address);
+        }
+
+        // ends everything bound to the lost connection; writes buffered for a reconnect survive
+        void release() {
+            batcher.flush(DataBatcher.FlushReason.CLOSE);
+            responses.failAll("Not connected");
+            cancelUpload("Not connected");
+            DeviceHandshake h = handshake;
+            if (h != null)
+                h.cancel();
+        }
+
+        void cancelUpload(String message) {
+            ProgramUpload u = upload;
+            if (u != null)
+                u.cancel(message);
+        }
+
+        /**
+         * Queues {@code data} on the service's writer for this robot, or buffers it while
+         * reconnecting; rejects {@code call} if neither is possible.
+         *
+         * @return true if queued
+         */
+        boolean submitWrite(byte[] data, SerialWriter.Callback callback, PluginCall call) {
+            SerialService s = connectedService();
+            try {
+                if (s == null && reconnector.isReconnecting()) {
+                    if (reconnector.buffer(data, callback, writerSettings.capacity))
+                        return true;
+                    call.reject("write queue full");
+                    return false;
+                }
+                if (s == null)
+                    throw new IOException("Not connected");
+                if (s.write(address, data, callback))
+                    return true;
+                call.reject("write queue full");
+            } catch (IOException e) {
+                call.reject("Not connected");
+            }
+            return false;
+        }
+
+        private void startHandshake(SerialService s) {
+            final DeviceHandshake h = new DeviceHandshake(new DeviceHandshake.Listener() {
+                @Override
+                public void onInfo(int major, int minor, boolean hasProgram, int programHash) {
+                    // keep name, lastConnected and strategy from rememberConnection
+                    DeviceStore.Record record = deviceStore.get(address);
+                    if (record == null)
+                        record = new DeviceStore.Record();
+                    record.firmware = major + "." + minor;
+                    record.hasProgram = hasProgram;
+                    record.programHash = programHash;
+                    record.checkedAt = System.currentTimeMillis();
+                    deviceStore.put(address, record);
+                    programCache.forget(address);
+                    if (hasProgram)
+                        programCache.markHeld(address, programHash);
+                    notifyListeners("deviceInfo", deviceInfo(address, record));
+                }
+
+                @Override
+                public void onTimeout() {
+                    Log.i(TAG, "no handshake reply from " + address);
+                }
+            });
+            handshake = h;
+            h.start(timeoutWheel, handshakeTimeoutMs);
+            try {
+                if (!s.write(address, DeviceHandshake.request(), NO_OP_WRITE_CALLBACK))
+                    h.cancel();
+            } catch (IOException e) {
+                h.cancel();
+            }
+        }
+
+        void setFraming(@Nullable SerialFramer newFramer, boolean base64Frames) {
+            synchronized (frameLock) {
+                framer = newFramer;
+                base64 = base64Frames;
+                utf8Decoder.reset();
+            }
+        }
+
+        private void emitData(byte[] data, int off, int len) {
+            long start = System.nanoTime();
+            synchronized (frameLock) {
+                if (framer != null) {
+                    framer.feed(data, off, len, frameListener);
+                } else {
+                    String value = base64
+                            ? Base64.encodeToString(data, off, len, Base64.NO_WRAP)
+                            : utf8Decoder.decode(data, off, len);
+                    if (value.isEmpty())
+                        return; // only the start of a multi-byte character so far
+                    JSObject o = event();
+                    o.put("value", value);
+                    stats.dataEvents.increment();
+                    notifyListeners("data", o);
+                }
+            }
+            stats.dispatchTime.recordNanos(System.nanoTime() - start);
+        }
+
+        private void resetFraming() {
+            synchronized (frameLock) {
+                if (framer != null)
+                    framer.reset();
+                utf8Decoder.reset();
+            }
+        }
+    }
 
     @Override
     public void load() {
         Log.d(TAG, "plugin loaded");
+        deviceStore = new DeviceStore(getContext());
+        getContext().bindService(new Intent(getContext(), SerialService.class), serviceConnection, Context.BIND_AUTO_CREATE);
         // listen for adapter state changes
         IntentFilter f = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         getContext().registerReceiver(new BroadcastReceiver() {
@@ -80,6 +650,102 @@ public class BluetoothSerialPlugin extends Plugin {
         }, f);
     }
 
+    @Override
+    protected void handleOnDestroy() {
+        // the connections stay with SerialService; only detach from it
+        synchronized (serviceLock) {
+            if (service != null)
+                service.detach();
+            service = null;
+            pendingServiceActions.clear();
+        }
+        try {
+            getContext().unbindService(serviceConnection);
+        } catch (Exception ignored) {}
+        stopStatsEvents();
+        for (RobotLink link : links.all()) {
+            link.resolveConnect(false);
+            link.reconnector.cancel();
+            closeCapture(link.capture.getAndSet(null));
+            link.responses.failAll("Not connected");
+            link.cancelUpload("Not connected");
+        }
+        scheduler.shutdownNow();
+        super.handleOnDestroy();
+    }
+
+    /**
+     * Runs {@code action} once the service is bound, immediately if it already is.
+     */
+    private void withService(Runnable action) {
+        synchronized (serviceLock) {
+            if (service == null) {
+                pendingServiceActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * @return the link named by the call's "address", by default the robot connected last; null if none
+     */
+    @Nullable
+    private RobotLink findLink(PluginCall call) {
+        return links.find(call.getString("address"));
+    }
+
+    /**
+     * @return the call's link if it accepts writes; otherwise null after rejecting the call
+     */
+    @Nullable
+    private RobotLink writableLink(PluginCall call) {
+        RobotLink link = findLink(call);
+        if (link == null || !link.writable()) {
+            call.reject("Not connected");
+            return null;
+        }
+        return link;
+    }
+
+    private static JSObject stateJson(ConnectionState.Snapshot snapshot) {
+        JSObject o = new JSObject();
+        o.put("state", snapshot.state.jsName());
+        o.put("address", snapshot.address);
+        o.put("since", snapshot.sinceMs);
+        return o;
+    }
+
+    /**
+     * Records the connection for getKnownDevices(). The stored program hash is not trusted for the
+     * program cache: the robot may have been reprogrammed by another phone since, so only the
+     * handshake or an upload from this session marks a program as held.
+     */
+    private void rememberConnection(String address, @Nullable String name, @Nullable RfcommTransport.Strategy strategy) {
+        DeviceStore.Record record = deviceStore.get(address);
+        if (record == null)
+            record = new DeviceStore.Record();
+        if (name != null && !name.equals(address))
+            record.name = name;
+        if (strategy != null)
+            record.strategy = strategy.name();
+        record.lastConnected = System.currentTimeMillis();
+        deviceStore.put(address, record);
+    }
+
+    private static JSObject deviceInfo(String address, @Nullable DeviceStore.Record record) {
+        JSObject o = new JSObject();
+        o.put("address", address);
+        o.put("known", record != null);
+        if (record != null) {
+            o.put("firmware", record.firmware);
+            o.put("programHash", record.hasProgram ? String.format("%08x", record.programHash) : null);
+            o.put("checkedAt", record.checkedAt);
+            o.put("strategy", record.strategy != null ? record.strategy.toLowerCase(Locale.ROOT) : null);
+        }
+        return o;
+    }
+
     private void notifyEnabledChange(boolean enabled) {
         JSObject o = new JSObject();
         o.put("enabled", enabled);
@@ -125,11 +791,63 @@ public class BluetoothSerialPlugin extends Plugin {
         // If discovery already running, return early with current discovered devices
         if (discoveryInProgress.get()) {
             JSObject out = new JSObject();
-            out.put("devices", new JSArray(discoveredDevices));
+            out.put("devices", discoveredDevicesJson());
             call.resolve(out);
             return;
         }
 
+        // resolved by finishDiscovery() on ACTION_DISCOVERY_FINISHED, or after 8s
+        // as a safety timeout to avoid never resolving on some devices
+        scanCall = call;
+        if (!startDiscovery(SCAN_TIMEOUT_MS)) {
+            scanCall = null;
+            call.reject("startDiscovery failed");
+        }
+    }
+
+    @PluginMethod
+    public void startScan(PluginCall call) {
+        int timeoutMs = call.getInt("timeoutMs", (int) STREAMING_SCAN_TIMEOUT_MS);
+        if (btAdapter == null) {
+            call.reject("Bluetooth adapter not available");
+            return;
+        }
+        if (timeoutMs <= 0) {
+            call.reject("timeoutMs must be > 0");
+            return;
+        }
+        if (!discoveryInProgress.get() && !startDiscovery(timeoutMs)) {
+            call.reject("startDiscovery failed");
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("scanning", true);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void stopScan(final PluginCall call) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (btAdapter != null) {
+                    try { btAdapter.cancelDiscovery(); } catch (Exception ignored) {}
+                }
+                finishDiscovery();
+                JSObject out = new JSObject();
+                out.put("devices", discoveredDevicesJson());
+                call.resolve(out);
+            }
+        });
+    }
+
+    /**
+     * Starts discovery; every ACTION_FOUND is emitted as "deviceFound" right away, the end of
+     * discovery (finished, timed out or stopped) as "scanFinished".
+     *
+     * @return false if discovery could not be started
+     */
+    private boolean startDiscovery(long timeoutMs) {
         discoveredDevices.clear();
 
         discoveryReceiver = new BroadcastReceiver() {
@@ -138,17 +856,22 @@ public class BluetoothSerialPlugin extends Plugin {
                 final String action = intent.getAction();
                 if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                     BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    JSObject d = new JSObject();
-                    d.put("id", device.getAddress());
-                    d.put("name", device.getName() != null ? device.getName() : "Unknown");
-                    discoveredDevices.add(d);
+                    if (device == null)
+                        return;
+                    String name = device.getName();
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DiscoveryRegistry.RSSI_UNKNOWN);
+                    long now = System.currentTimeMillis();
+                    // the stack may report a device several times per inquiry
+                    if (discoveredDevices.onFound(device.getAddress(), name, rssi, now)) {
+                        JSObject d = new JSObject();
+                        d.put("id", device.getAddress());
+                        d.put("name", name != null ? name : "Unknown");
+                        if (rssi != DiscoveryRegistry.RSSI_UNKNOWN)
+                            d.put("rssi", rssi);
+                        notifyListeners("deviceFound", d);
+                    }
                 } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                    // done
-                    getContext().unregisterReceiver(this);
-                    discoveryInProgress.set(false);
-                    JSObject out = new JSObject();
-                    out.put("devices", new JSArray(discoveredDevices));
-                    call.resolve(out);
+                    finishDiscovery();
                 }
             }
         };
@@ -167,37 +890,100 @@ public class BluetoothSerialPlugin extends Plugin {
         boolean started = btAdapter.startDiscovery();
         discoveryInProgress.set(started);
         if (!started) {
-            // If discovery failed to start, cleanup and reject
             try {
                 getContext().unregisterReceiver(discoveryReceiver);
             } catch (Exception ignored) {}
-            discoveryInProgress.set(false);
-            call.reject("startDiscovery failed");
-        } else {
-            // discovery will resolve the call when ACTION_DISCOVERY_FINISHED fires
-            // as a safety timeout, also schedule a fallback resolution after 8s
-            // to avoid never resolving on some devices
-            final PluginCall pending = call;
-            getBridge().getActivity().getWindow().getDecorView().postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (discoveryInProgress.get()) {
-                        try {
-                            btAdapter.cancelDiscovery();
-                        } catch (Exception ignored) {}
-                        try {
-                            getContext().unregisterReceiver(discoveryReceiver);
-                        } catch (Exception ignored) {}
-                        discoveryInProgress.set(false);
-                        JSObject out = new JSObject();
-                        out.put("devices", new JSArray(discoveredDevices));
-                        if (pending != null && !pending.isReleased()) {
-                            pending.resolve(out);
-                        }
-                    }
-                }
-            }, 8000);
+            return false;
+        }
+        mainHandler.postDelayed(discoveryTimeout, timeoutMs);
+        return true;
+    }
+
+    /**
+     * @return devices found by the current or last discovery, strongest signal first
+     */
+    private JSArray discoveredDevicesJson() {
+        JSArray devices = new JSArray();
+        for (DiscoveryRegistry.Entry entry : discoveredDevices.sorted()) {
+            JSObject d = new JSObject();
+            d.put("id", entry.address);
+            d.put("name", entry.name != null ? entry.name : "Unknown");
+            if (entry.rssi != DiscoveryRegistry.RSSI_UNKNOWN)
+                d.put("rssi", entry.rssi);
+            d.put("lastSeen", entry.lastSeenMs);
+            devices.put(d);
+        }
+        return devices;
+    }
+
+    // main thread
+    private void finishDiscovery() {
+        if (!discoveryInProgress.getAndSet(false))
+            return;
+        mainHandler.removeCallbacks(discoveryTimeout);
+        try {
+            getContext().unregisterReceiver(discoveryReceiver);
+        } catch (Exception ignored) {}
+        JSObject out = new JSObject();
+        out.put("devices", discoveredDevicesJson());
+        PluginCall pending = scanCall;
+        scanCall = null;
+        if (pending != null && !pending.isReleased())
+            pending.resolve(out);
+        notifyListeners("scanFinished", out);
+    }
+
+    @PluginMethod
+    public void getKnownDevices(PluginCall call) {
+        Set<BluetoothDevice> bonded = null;
+        if (btAdapter != null) {
+            try {
+                bonded = btAdapter.getBondedDevices();
+            } catch (SecurityException e) {
+                Log.w(TAG, "bonded devices not readable", e);
+            }
         }
+        HashMap<String, JSObject> byAddress = new HashMap<>();
+        final HashMap<String, Long> lastConnected = new HashMap<>();
+        if (bonded != null) {
+            for (BluetoothDevice device : bonded) {
+                JSObject d = new JSObject();
+                d.put("id", device.getAddress());
+                d.put("name", device.getName() != null ? device.getName() : "Unknown");
+                d.put("bonded", true);
+                d.put("lastConnected", 0);
+                byAddress.put(device.getAddress(), d);
+                lastConnected.put(device.getAddress(), 0L);
+            }
+        }
+        for (Map.Entry<String, DeviceStore.Record> entry : deviceStore.all().entrySet()) {
+            DeviceStore.Record record = entry.getValue();
+            JSObject d = byAddress.get(entry.getKey());
+            if (d == null) {
+                d = new JSObject();
+                d.put("id", entry.getKey());
+                d.put("name", record.name != null ? record.name : "Unknown");
+                d.put("bonded", false);
+                byAddress.put(entry.getKey(), d);
+            }
+            d.put("lastConnected", record.lastConnected);
+            lastConnected.put(entry.getKey(), record.lastConnected);
+        }
+        ArrayList<String> addresses = new ArrayList<>(byAddress.keySet());
+        Collections.sort(addresses, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(lastConnected.get(b), lastConnected.get(a));
+            }
+        });
+        JSArray devices = new JSArray();
+        for (String address : addresses)
+            devices.put(byAddress.get(address));
+        JSObject ret = new JSObject();
+        ret.put("devices", devices);
+        String recent = addresses.isEmpty() || lastConnected.get(addresses.get(0)) == 0 ? null : addresses.get(0);
+        ret.put("lastConnectedId", recent);
+        call.resolve(ret);
     }
 
     @PluginMethod
@@ -207,113 +993,916 @@ public class BluetoothSerialPlugin extends Plugin {
             call.reject("address is required");
             return;
         }
+        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+            // getRemoteDevice would throw later, on the main thread once the service is bound
+            call.reject("invalid address: " + address);
+            return;
+        }
         if (btAdapter == null) {
             call.reject("Bluetooth adapter not available");
             return;
         }
+        if (!links.hasSlotFor(address)) {
+            call.reject("at most " + links.maxActive() + " robots can be connected");
+            return;
+        }
 
         // stop discovery while connecting
         try { btAdapter.cancelDiscovery(); } catch (Exception ignored) {}
 
-        final BluetoothDevice device = btAdapter.getRemoteDevice(address);
-        final JSObject res = new JSObject();
-
-        new Thread(new Runnable() {
+        final String deviceAddress = address;
+        final RobotLink link = links.obtain(address);
+        link.reconnector.cancel(); // an explicit connect wins over a pending redial
+        links.setPrimary(address);
+        withService(new Runnable() {
             @Override
             public void run() {
-                try {
-                    // create rfcomm socket and connect
-                    socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
-                    socket.connect();
-                    connectedDevice = device;
-
-                    // start reader thread
-                    startReadThread();
-
-                    res.put("connected", true);
-                    call.resolve(res);
-                } catch (IOException e) {
-                    Log.e(TAG, "connect failed", e);
-                    res.put("connected", false);
-                    call.resolve(res);
-                    try {
-                        if (socket != null) {
-                            socket.close();
-                        }
-                    } catch (Exception ignored) {}
-                    socket = null;
+                SerialService s;
+                synchronized (serviceLock) {
+                    s = service;
+                    if (s == null) {
+                        call.reject("service not available");
+                        return;
+                    }
+                    if (s.isConnected(deviceAddress)) {
+                        // link survived in the service, no need to dial again
+                        link.state.moveTo(ConnectionState.State.CONNECTED, deviceAddress);
+                        JSObject res = new JSObject();
+                        res.put("connected", true);
+                        call.resolve(res);
+                        return;
+                    }
+                    if (link.connectCall != null) {
+                        JSObject superseded = new JSObject();
+                        superseded.put("connected", false);
+                        link.connectCall.resolve(superseded);
+                    }
+                    link.connectCall = call;
                 }
+                link.state.moveTo(ConnectionState.State.CONNECTING, deviceAddress);
+                link.dial(s);
             }
-        }).start();
+        });
     }
 
     @PluginMethod
-    public void disconnect(PluginCall call) {
+    public void disconnect(final PluginCall call) {
+        String address = call.getString("address");
         try {
-            stopReadThread();
-            if (socket != null) {
-                socket.close();
-                socket = null;
+            if (address != null) {
+                RobotLink link = links.get(address);
+                if (link != null)
+                    disconnect(link);
+            } else {
+                for (RobotLink link : links.all()) {
+                    if (link.isActive())
+                        disconnect(link);
+                }
             }
-            connectedDevice = null;
-            notifyListeners("disconnect", new JSObject());
             call.resolve();
         } catch (Exception e) {
             call.reject("disconnect failed", e);
         }
     }
 
+    private static void disconnect(RobotLink link) {
+        link.reconnector.cancel();
+        link.resolveConnect(false);
+        link.onDisconnected();
+    }
+
+    @PluginMethod
+    public void isConnected(PluginCall call) {
+        RobotLink link = findLink(call);
+        JSObject ret = new JSObject();
+        ret.put("connected", link != null && link.state.is(ConnectionState.State.CONNECTED));
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getState(PluginCall call) {
+        RobotLink link = findLink(call);
+        if (link != null) {
+            call.resolve(stateJson(link.state.get()));
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("state", ConnectionState.State.IDLE.jsName());
+        ret.put("address", call.getString("address"));
+        ret.put("since", 0);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getConnections(PluginCall call) {
+        SerialService s;
+        synchronized (serviceLock) {
+            s = service;
+        }
+        JSArray connections = new JSArray();
+        for (RobotLink link : links.all()) {
+            if (!link.isActive())
+                continue;
+            JSObject o = stateJson(link.state.get());
+            o.put("name", s != null ? s.getName(link.address) : null);
+            connections.put(o);
+        }
+        JSObject ret = new JSObject();
+        ret.put("connections", connections);
+        ret.put("primary", links.primary());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void sendIfConnected(final PluginCall call) {
+        String value = call.getString("value");
+        String base64 = call.getString("base64");
+        if (value == null && base64 == null) {
+            call.reject("value or base64 is required");
+            return;
+        }
+        RobotLink link = findLink(call);
+        ConnectionState.State state = link != null ? link.state.get().state : ConnectionState.State.IDLE;
+        if (state != ConnectionState.State.CONNECTED) {
+            JSObject ret = new JSObject();
+            ret.put("sent", false);
+            ret.put("state", state.jsName());
+            call.resolve(ret);
+            return;
+        }
+        byte[] data;
+        try {
+            data = base64 != null ? decodeBase64(base64) : value.getBytes(StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        link.submitWrite(data, new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {
+                JSObject ret = new JSObject();
+                ret.put("sent", true);
+                ret.put("state", ConnectionState.State.CONNECTED.jsName());
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                call.reject("write failed", e);
+            }
+        }, call);
+    }
+
     @PluginMethod
     public void write(PluginCall call) {
         String value = call.getString("value", "");
-        if (socket == null || !socket.isConnected()) {
+        RobotLink link = writableLink(call);
+        if (link == null)
+            return;
+        writeData(link, value.getBytes(StandardCharsets.UTF_8), call);
+    }
+
+    @PluginMethod
+    public void writeBytes(PluginCall call) {
+        String base64 = call.getString("base64");
+        JSArray data = call.getArray("data");
+        if (base64 == null && data == null) {
+            call.reject("base64 or data is required");
+            return;
+        }
+        RobotLink link = writableLink(call);
+        if (link == null)
+            return;
+        byte[] bytes;
+        try {
+            bytes = base64 != null ? decodeBase64(base64) : byteArray(data);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        writeData(link, bytes, call);
+    }
+
+    private static final Pattern BASE64_CHARS = Pattern.compile("[A-Za-z0-9+/=\\s]*");
+
+    /**
+     * @throws IllegalArgumentException on characters outside the alphabet, which android.util.Base64
+     *         would silently skip, or a malformed tail
+     */
+    private static byte[] decodeBase64(String base64) {
+        if (!BASE64_CHARS.matcher(base64).matches())
+            throw new IllegalArgumentException("invalid base64 input");
+        return Base64.decode(base64, Base64.DEFAULT);
+    }
+
+    /**
+     * @throws IllegalArgumentException on non-numeric entries or entries outside 0..255
+     */
+    private static byte[] byteArray(JSArray values) {
+        byte[] bytes = new byte[values.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            Object o = values.opt(i);
+            if (!(o instanceof Number))
+                throw new IllegalArgumentException("data[" + i + "] is not a number");
+            int v = ((Number) o).intValue();
+            if (v < 0 || v > 255)
+                throw new IllegalArgumentException("data[" + i + "] is out of byte range");
+            bytes[i] = (byte) v;
+        }
+        return bytes;
+    }
+
+    private void writeData(RobotLink link, byte[] data, final PluginCall call) {
+        link.submitWrite(data, new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {
+                call.resolve();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                call.reject("write failed", e);
+            }
+        }, call);
+    }
+
+    @PluginMethod
+    public void broadcast(final PluginCall call) {
+        JSArray addresses = call.getArray("addresses");
+        String value = call.getString("value");
+        String base64 = call.getString("base64");
+        if (value == null && base64 == null) {
+            call.reject("value or base64 is required");
+            return;
+        }
+        LinkedHashSet<String> targets = new LinkedHashSet<>();
+        if (addresses != null) {
+            for (int i = 0; i < addresses.length(); i++) {
+                String address = addresses.optString(i, null);
+                if (address != null)
+                    targets.add(address);
+            }
+        } else {
+            for (RobotLink link : links.all()) {
+                if (link.state.is(ConnectionState.State.CONNECTED))
+                    targets.add(link.address);
+            }
+        }
+        if (targets.isEmpty()) {
+            call.reject(addresses != null ? "addresses must not be empty" : "Not connected");
+            return;
+        }
+        byte[] data;
+        try {
+            data = base64 != null ? decodeBase64(base64) : value.getBytes(StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        final SerialService s;
+        synchronized (serviceLock) {
+            s = service;
+        }
+        Broadcast broadcast = new Broadcast(data, new ArrayList<>(targets), new Broadcast.Listener() {
+            @Override
+            public void onComplete(Broadcast b) {
+                call.resolve(broadcastJson(b));
+            }
+        });
+        broadcast.start(new Broadcast.Sender() {
+            @Override
+            public boolean send(String address, byte[] data, SerialWriter.Callback callback) throws IOException {
+                // only live links: buffering for a reconnect would defeat starting together
+                if (s == null || !s.isConnected(address))
+                    throw new IOException("Not connected");
+                return s.write(address, data, callback);
+            }
+        });
+    }
+
+    private static JSObject broadcastJson(Broadcast b) {
+        JSArray robots = new JSArray();
+        for (Broadcast.Robot robot : b.robots()) {
+            JSObject o = new JSObject();
+            o.put("address", robot.address);
+            o.put("sent", robot.sent());
+            if (robot.sent()) {
+                o.put("queuedMs", robot.queuedNanos / 1e6);
+                o.put("startMs", robot.startedNanos / 1e6);
+                o.put("writtenMs", robot.writtenNanos / 1e6);
+            } else {
+                o.put("error", robot.error);
+            }
+            robots.put(o);
+        }
+        JSObject ret = new JSObject();
+        ret.put("robots", robots);
+        ret.put("sent", b.sent());
+        ret.put("startSkewMs", b.startSkewNanos() / 1e6);
+        ret.put("writtenSkewMs", b.writtenSkewNanos() / 1e6);
+        return ret;
+    }
+
+    @PluginMethod
+    public void runProgram(final PluginCall call) {
+        JSArray blocks = call.getArray("blocks");
+        String format = call.getString("format", "binary");
+        if (blocks == null) {
+            call.reject("blocks is required");
+            return;
+        }
+        if (!"binary".equals(format) && !"text".equals(format)) {
+            call.reject("format must be binary or text");
+            return;
+        }
+        RobotLink link = writableLink(call);
+        if (link == null)
+            return;
+        final BlockProgramCompiler.Program program;
+        try {
+            program = programCache.compile(blocks);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        final boolean cached = "binary".equals(format) && programCache.isHeld(link.address, program.hash);
+        final byte[] data;
+        if ("text".equals(format))
+            data = (program.toText() + "\n").getBytes(StandardCharsets.UTF_8);
+        else
+            data = cached ? BlockProgramCompiler.runCached(program.hash) : program.code;
+        link.submitWrite(data, new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {
+                JSObject ret = new JSObject();
+                ret.put("bytes", data.length);
+                ret.put("ops", program.opCount());
+                ret.put("blocks", program.blocks);
+                ret.put("hash", program.hashHex());
+                ret.put("cached", cached);
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                call.reject("write failed", e);
+            }
+        }, call);
+    }
+
+    @PluginMethod
+    public void uploadProgram(final PluginCall call) {
+        JSArray blocks = call.getArray("blocks");
+        int chunkSize = call.getInt("chunkSize", ProgramUpload.DEFAULT_CHUNK_BYTES);
+        int window = call.getInt("window", ProgramUpload.DEFAULT_WINDOW);
+        int ackTimeoutMs = call.getInt("ackTimeoutMs", (int) ProgramUpload.DEFAULT_ACK_TIMEOUT_MS);
+        int maxRetries = call.getInt("maxRetries", ProgramUpload.DEFAULT_MAX_RETRIES);
+        if (blocks == null) {
+            call.reject("blocks is required");
+            return;
+        }
+        if (ackTimeoutMs <= 0 || maxRetries < 0) {
+            call.reject("ackTimeoutMs must be > 0 and maxRetries >= 0");
+            return;
+        }
+        final RobotLink link = findLink(call);
+        if (link == null || link.connectedService() == null) {
             call.reject("Not connected");
             return;
         }
+        final String address = link.address;
+        if (link.upload != null) {
+            call.reject("upload in progress");
+            return;
+        }
+        final BlockProgramCompiler.Program program;
+        final ProgramUpload u;
         try {
-            OutputStream out = socket.getOutputStream();
-            out.write(value.getBytes());
-            out.flush();
-            call.resolve();
+            program = programCache.compile(blocks);
+            u = new ProgramUpload(program.code, chunkSize, window, ackTimeoutMs, maxRetries, timeoutWheel,
+                    new ProgramUpload.Link() {
+                        @Override
+                        public boolean send(byte[] packet) {
+                            SerialService current = link.connectedService();
+                            try {
+                                return current != null && current.write(address, packet, NO_OP_WRITE_CALLBACK);
+                            } catch (IOException e) {
+                                return false; // resent after the ACK timeout, or cancelled on disconnect
+                            }
+                        }
+                    },
+                    new ProgramUpload.Listener() {
+                        @Override
+                        public void onProgress(int acked, int total) {
+                            JSObject o = link.event();
+                            o.put("acked", acked);
+                            o.put("total", total);
+                            notifyListeners("uploadProgress", o);
+                        }
+
+                        @Override
+                        public void onComplete(int chunks, int retransmits) {
+                            link.upload = null;
+                            programCache.markHeld(address, program.hash);
+                            DeviceStore.Record record = deviceStore.get(address);
+                            if (record == null)
+                                record = new DeviceStore.Record();
+                            record.hasProgram = true;
+                            record.programHash = program.hash;
+                            deviceStore.put(address, record);
+                            JSObject ret = new JSObject();
+                            ret.put("bytes", program.code.length);
+                            ret.put("hash", program.hashHex());
+                            ret.put("chunks", chunks);
+                            ret.put("retransmits", retransmits);
+                            call.resolve(ret);
+                        }
+
+                        @Override
+                        public void onFailed(String message) {
+                            link.upload = null;
+                            call.reject(message);
+                        }
+                    });
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        link.upload = u;
+        u.start();
+    }
+
+    @PluginMethod
+    public void getProgramCacheStats(PluginCall call) {
+        JSObject ret = new JSObject();
+        ret.put("programs", programCache.size());
+        ret.put("hits", programCache.hits());
+        ret.put("misses", programCache.misses());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setHandshake(PluginCall call) {
+        boolean enabled = call.getBoolean("enabled", handshakeEnabled);
+        int timeoutMs = call.getInt("timeoutMs", (int) handshakeTimeoutMs);
+        if (timeoutMs <= 0) {
+            call.reject("timeoutMs must be > 0");
+            return;
+        }
+        handshakeTimeoutMs = timeoutMs;
+        handshakeEnabled = enabled;
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getDeviceInfo(PluginCall call) {
+        String address = call.getString("address");
+        if (address == null) {
+            call.reject("address is required");
+            return;
+        }
+        call.resolve(deviceInfo(address, deviceStore.get(address)));
+    }
+
+    @PluginMethod
+    public void startCapture(PluginCall call) {
+        String address = call.getString("address", links.primary());
+        long maxBytes = call.getLong("maxBytes", TrafficCapture.DEFAULT_MAX_BYTES);
+        if (address == null) {
+            call.reject("address is required");
+            return;
+        }
+        if (maxBytes < TrafficCapture.HEADER_BYTES || maxBytes > Integer.MAX_VALUE) {
+            call.reject("maxBytes must be in " + TrafficCapture.HEADER_BYTES + ".." + Integer.MAX_VALUE);
+            return;
+        }
+        File dir = new File(getContext().getFilesDir(), "captures");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            call.reject("cannot create " + dir);
+            return;
+        }
+        String fileName = "capture-" + address.replace(":", "") + "-" + System.currentTimeMillis() + ".bjcap";
+        TrafficCapture c;
+        try {
+            c = new TrafficCapture(new File(dir, fileName), maxBytes);
+        } catch (IOException e) {
+            call.reject("capture failed", e);
+            return;
+        }
+        closeCapture(links.obtain(address).capture.getAndSet(c)); // may precede the connect
+        JSObject ret = new JSObject();
+        ret.put("path", c.getFile().getAbsolutePath());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void stopCapture(PluginCall call) {
+        RobotLink link = findLink(call);
+        TrafficCapture c = link != null ? link.capture.getAndSet(null) : null;
+        if (c == null) {
+            call.reject("no capture running");
+            return;
+        }
+        closeCapture(c);
+        JSObject ret = new JSObject();
+        ret.put("path", c.getFile().getAbsolutePath());
+        ret.put("records", c.records());
+        ret.put("bytes", c.bytes());
+        ret.put("dropped", c.dropped());
+        call.resolve(ret);
+    }
+
+    private static void closeCapture(@Nullable TrafficCapture c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
         } catch (IOException e) {
-            call.reject("write failed", e);
+            Log.w(TAG, "closing capture failed", e);
         }
     }
 
-    private void startReadThread() {
-        stopReadThread();
-        readThread = new Thread(new Runnable() {
+    @PluginMethod
+    public void replayCapture(final PluginCall call) {
+        String path = call.getString("path");
+        double speed = call.getDouble("speed", 1.0);
+        if (path == null) {
+            call.reject("path is required");
+            return;
+        }
+        if (speed < 0) {
+            call.reject("speed must be >= 0");
+            return;
+        }
+        if (!links.hasSlotFor(ReplayTransport.ADDRESS)) {
+            call.reject("at most " + links.maxActive() + " robots can be connected");
+            return;
+        }
+        final ReplayTransport transport;
+        try {
+            transport = new ReplayTransport(TrafficCapture.read(new File(path)), speed);
+        } catch (IOException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        final RobotLink link = links.obtain(transport.getAddress());
+        link.reconnector.cancel();
+        links.setPrimary(link.address);
+        withService(new Runnable() {
             @Override
             public void run() {
-                try {
-                    InputStream in = socket.getInputStream();
-                    byte[] buffer = new byte[1024];
-                    int len;
-                    while (socket != null && socket.isConnected() && (len = in.read(buffer)) > 0) {
-                        final String data = new String(buffer, 0, len, "UTF-8");
-                        JSObject o = new JSObject();
-                        o.put("value", data);
-                        notifyListeners("data", o);
+                SerialService s;
+                synchronized (serviceLock) {
+                    s = service;
+                    if (s == null) {
+                        call.reject("service not available");
+                        return;
                     }
-                } catch (IOException e) {
-                    Log.i(TAG, "read thread ended", e);
-                } finally {
-                    try {
-                        if (socket != null) socket.close();
-                    } catch (IOException ignored) {}
-                    socket = null;
-                    connectedDevice = null;
-                    notifyListeners("disconnect", new JSObject());
+                    if (link.connectCall != null) {
+                        JSObject superseded = new JSObject();
+                        superseded.put("connected", false);
+                        link.connectCall.resolve(superseded);
+                    }
+                    link.connectCall = call;
                 }
+                link.replaying = true;
+                link.dialStartedNanos = 0; // keeps the connect time histogram to robots
+                link.state.moveTo(ConnectionState.State.CONNECTING, link.address);
+                s.connect(transport, writerSettings, link.writerStats);
             }
         });
-        readThread.start();
     }
 
-    private void stopReadThread() {
-        if (readThread != null && readThread.isAlive()) {
-            try { readThread.interrupt(); } catch (Exception ignored) {}
-            readThread = null;
+    @PluginMethod
+    public void setConnectOptions(PluginCall call) {
+        int timeoutMs = call.getInt("timeoutMs", (int) connectTimeoutMs);
+        JSArray names = call.getArray("strategies");
+        if (timeoutMs <= 0) {
+            call.reject("timeoutMs must be > 0");
+            return;
+        }
+        RfcommTransport.Strategy[] strategies = connectStrategies;
+        if (names != null) {
+            strategies = new RfcommTransport.Strategy[names.length()];
+            for (int i = 0; i < strategies.length; i++) {
+                try {
+                    strategies[i] = RfcommTransport.Strategy.valueOf(names.optString(i, "").toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    call.reject("strategies must be secure, insecure or channel");
+                    return;
+                }
+            }
+            if (strategies.length == 0) {
+                call.reject("strategies must not be empty");
+                return;
+            }
+        }
+        connectTimeoutMs = timeoutMs;
+        connectStrategies = strategies;
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setAutoReconnect(PluginCall call) {
+        boolean enabled = call.getBoolean("enabled", reconnectPolicy.enabled);
+        int maxAttempts = call.getInt("maxAttempts", reconnectPolicy.maxAttempts);
+        int baseDelayMs = call.getInt("baseDelayMs", (int) reconnectPolicy.baseDelayMs);
+        int maxDelayMs = call.getInt("maxDelayMs", (int) reconnectPolicy.maxDelayMs);
+        Double jitter = call.getDouble("jitter");
+        if (jitter == null)
+            jitter = reconnectPolicy.jitter;
+        if (maxAttempts <= 0 || baseDelayMs <= 0 || maxDelayMs < baseDelayMs || jitter < 0 || jitter > 1) {
+            call.reject("maxAttempts and baseDelayMs must be > 0, maxDelayMs >= baseDelayMs and jitter in 0..1");
+            return;
+        }
+        reconnectPolicy.maxAttempts = maxAttempts;
+        reconnectPolicy.baseDelayMs = baseDelayMs;
+        reconnectPolicy.maxDelayMs = maxDelayMs;
+        reconnectPolicy.jitter = jitter;
+        reconnectPolicy.enabled = enabled;
+        if (!enabled) {
+            for (RobotLink link : links.all())
+                link.reconnector.cancel();
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setWriteQueue(PluginCall call) {
+        int capacity = call.getInt("capacity", writerSettings.capacity);
+        String policy = call.getString("policy", writerSettings.overflow == SerialWriter.Overflow.BLOCK ? "block" : "reject");
+        int blockTimeoutMs = call.getInt("blockTimeoutMs", (int) writerSettings.blockTimeoutMs);
+        if (capacity <= 0 || blockTimeoutMs < 0) {
+            call.reject("capacity must be > 0 and blockTimeoutMs >= 0");
+            return;
+        }
+        if (!"reject".equals(policy) && !"block".equals(policy)) {
+            call.reject("policy must be reject or block");
+            return;
+        }
+        writerSettings.capacity = capacity;
+        writerSettings.overflow = "block".equals(policy) ? SerialWriter.Overflow.BLOCK : SerialWriter.Overflow.REJECT;
+        writerSettings.blockTimeoutMs = blockTimeoutMs;
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void writeAndAwait(final PluginCall call) {
+        String value = call.getString("value", "");
+        String terminator = call.getString("terminator", "\n");
+        int timeoutMs = call.getInt("timeoutMs", 2000);
+        if (terminator.isEmpty() || timeoutMs <= 0) {
+            call.reject("terminator must not be empty and timeoutMs must be > 0");
+            return;
+        }
+        final RobotLink link = writableLink(call);
+        if (link == null)
+            return;
+        final ResponseMatcher.Request request = link.responses.add(terminator, timeoutMs, new ResponseMatcher.Callback() {
+            @Override
+            public void onResponse(byte[] data, int off, int len) {
+                JSObject ret = new JSObject();
+                ret.put("value", new String(data, off, len, StandardCharsets.UTF_8));
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onError(String message) {
+                call.reject(message);
+            }
+        });
+        if (request == null) {
+            call.reject("too many pending requests");
+            return;
+        }
+        boolean queued = link.submitWrite(value.getBytes(StandardCharsets.UTF_8), new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {}
+
+            @Override
+            public void onFailed(IOException e) {
+                link.responses.cancel(request);
+                call.reject("write failed", e);
+            }
+        }, call);
+        if (!queued)
+            link.responses.cancel(request);
+    }
+
+    @PluginMethod
+    public void setWriteCoalescing(PluginCall call) {
+        int windowMs = call.getInt("windowMs", 0);
+        int maxBytes = call.getInt("maxBytes", SerialWriter.DEFAULT_COALESCE_MAX_BYTES);
+        if (windowMs < 0 || maxBytes <= 0) {
+            call.reject("windowMs must be >= 0 and maxBytes > 0");
+            return;
+        }
+        writerSettings.coalesceMaxBytes = maxBytes;
+        writerSettings.coalesceWindowMs = windowMs; // running writers pick this up with the next command
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getThreadStats(PluginCall call) {
+        SerialService s;
+        synchronized (serviceLock) {
+            s = service;
+        }
+        JSObject ret = new JSObject();
+        ret.put("live", timerThreadFactory.live() + (s != null ? s.getThreadFactory().live() : 0));
+        ret.put("created", timerThreadFactory.created() + (s != null ? s.getThreadFactory().created() : 0));
+        ret.put("poolSize", s != null ? s.getExecutor().getPoolSize() : 0);
+        ret.put("activeTasks", s != null ? s.getExecutor().getActiveCount() : 0);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getWriteStats(PluginCall call) {
+        RobotLink link = findLink(call);
+        if (link == null) {
+            call.reject("Not connected");
+            return;
+        }
+        SerialService s = link.connectedService();
+        JSObject ret = new JSObject();
+        ret.put("queueDepth", s != null ? s.writeQueueDepth(link.address) : 0);
+        ret.put("capacity", writerSettings.capacity);
+        ret.put("policy", writerSettings.overflow == SerialWriter.Overflow.BLOCK ? "block" : "reject");
+        ret.put("written", link.writerStats.written.get());
+        ret.put("packets", link.writerStats.packets.get());
+        ret.put("rejected", link.writerStats.rejected.get());
+        ret.put("latencyMs", histogramJson(link.writerStats.latency, 1000.0));
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        RobotLink link = findLink(call);
+        if (link == null) {
+            call.reject("Not connected");
+            return;
         }
+        JSObject ret = statsJson(link);
+        if (call.getBoolean("reset", false)) {
+            link.stats.reset();
+            link.writerStats.reset();
+        }
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setStatsInterval(PluginCall call) {
+        int intervalMs = call.getInt("intervalMs", 0);
+        if (intervalMs < 0) {
+            call.reject("intervalMs must be >= 0");
+            return;
+        }
+        stopStatsEvents();
+        if (intervalMs > 0) {
+            synchronized (links) {
+                statsTask = scheduler.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (RobotLink link : links.all())
+                            notifyListeners("stats", statsJson(link));
+                    }
+                }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        call.resolve();
+    }
+
+    private void stopStatsEvents() {
+        synchronized (links) {
+            if (statsTask != null)
+                statsTask.cancel(false);
+            statsTask = null;
+        }
+    }
+
+    private static JSObject statsJson(RobotLink link) {
+        LinkStats stats = link.stats;
+        SerialWriter.Stats writerStats = link.writerStats;
+        JSObject ret = link.event();
+        ret.put("state", link.state.get().state.jsName());
+        ret.put("bytesRead", stats.bytesRead.sum());
+        ret.put("bytesWritten", writerStats.bytes.get());
+        ret.put("readChunks", stats.readChunks.sum());
+        ret.put("dataEvents", stats.dataEvents.sum());
+        ret.put("writes", writerStats.written.get());
+        ret.put("packets", writerStats.packets.get());
+        ret.put("rejectedWrites", writerStats.rejected.get());
+        ret.put("connects", stats.connects.sum());
+        ret.put("connectFailures", stats.connectFailures.sum());
+        ret.put("linkLosses", stats.linkLosses.sum());
+        ret.put("reconnects", stats.reconnects.sum());
+        ret.put("connectMs", histogramJson(stats.connectTime, 1000.0));
+        ret.put("writeToFlushMs", histogramJson(writerStats.latency, 1000.0));
+        ret.put("readChunkBytes", histogramJson(stats.readChunkBytes, 1));
+        ret.put("dispatchMs", histogramJson(stats.dispatchTime, 1000.0));
+        return ret;
+    }
+
+    /**
+     * @param divisor 1000.0 turns the microseconds of a latency histogram into milliseconds
+     */
+    private static JSObject histogramJson(LatencyHistogram h, double divisor) {
+        JSObject o = new JSObject();
+        o.put("count", h.count());
+        o.put("mean", h.meanMicros() / divisor);
+        o.put("p50", h.percentileMicros(50) / divisor);
+        o.put("p90", h.percentileMicros(90) / divisor);
+        o.put("p99", h.percentileMicros(99) / divisor);
+        o.put("max", h.maxMicros() / divisor);
+        return o;
+    }
+
+    @PluginMethod
+    public void setDataBatching(PluginCall call) {
+        int maxBytes = call.getInt("maxBytes", 0);
+        int maxDelayMs = call.getInt("maxDelayMs", 0);
+        if (maxBytes < 0 || maxDelayMs < 0) {
+            call.reject("maxBytes and maxDelayMs must be >= 0");
+            return;
+        }
+        synchronized (links) {
+            batchMaxBytes = maxBytes;
+            batchMaxDelayMs = maxDelayMs;
+            for (RobotLink link : links.all())
+                link.batcher.configure(maxBytes, maxDelayMs);
+        }
+        JSObject ret = new JSObject();
+        ret.put("enabled", maxBytes > 0 && maxDelayMs > 0);
+        ret.put("maxBytes", maxBytes);
+        ret.put("maxDelayMs", maxDelayMs);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getDataBatchingStats(PluginCall call) {
+        RobotLink link = findLink(call);
+        if (link == null) {
+            call.reject("Not connected");
+            return;
+        }
+        DataBatcher batcher = link.batcher;
+        JSObject flushes = new JSObject();
+        flushes.put("immediate", batcher.getFlushes(DataBatcher.FlushReason.IMMEDIATE));
+        flushes.put("size", batcher.getFlushes(DataBatcher.FlushReason.SIZE));
+        flushes.put("deadline", batcher.getFlushes(DataBatcher.FlushReason.DEADLINE));
+        flushes.put("close", batcher.getFlushes(DataBatcher.FlushReason.CLOSE));
+        JSObject ret = link.event();
+        ret.put("batches", batcher.getBatches());
+        ret.put("bytes", batcher.getBatchedBytes());
+        ret.put("largestBatch", batcher.getLargestBatch());
+        ret.put("flushes", flushes);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setFraming(PluginCall call) {
+        String mode = call.getString("mode", "raw");
+        String delimiter = call.getString("delimiter", "\n");
+        int lengthBytes = call.getInt("lengthBytes", 1);
+        int maxFrameBytes = call.getInt("maxFrameBytes", SerialFramer.DEFAULT_MAX_FRAME_BYTES);
+        String encoding = call.getString("encoding", "utf8");
+        if (delimiter.length() != 1 || delimiter.charAt(0) > 0x7f) {
+            call.reject("delimiter must be a single ASCII character");
+            return;
+        }
+        if (!"utf8".equals(encoding) && !"base64".equals(encoding)) {
+            call.reject("encoding must be utf8 or base64");
+            return;
+        }
+        if (!"raw".equals(mode)) {
+            SerialFramer probe;
+            try {
+                probe = SerialFramer.create(mode, (byte) delimiter.charAt(0), lengthBytes, maxFrameBytes);
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
+                return;
+            }
+            if (probe == null) {
+                call.reject("unknown framing mode " + mode);
+                return;
+            }
+        }
+        synchronized (links) {
+            framingMode = mode;
+            framingDelimiter = (byte) delimiter.charAt(0);
+            framingLengthBytes = lengthBytes;
+            framingMaxFrameBytes = maxFrameBytes;
+            base64Frames = "base64".equals(encoding);
+            for (RobotLink link : links.all()) // a framer keeps per-stream state, so one each
+                link.setFraming(newFramer(), base64Frames);
+        }
+        call.resolve();
+    }
+
+    // guarded by links; the settings were validated by setFraming
+    @Nullable
+    private SerialFramer newFramer() {
+        return "raw".equals(framingMode) ? null
+                : SerialFramer.create(framingMode, framingDelimiter, framingLengthBytes, framingMaxFrameBytes);
     }
 }
@@ -0,0 +1,168 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one payload to several robots at once, e.g. the same program to a whole "robot dance".
+ *
+ * Every robot has its own writer thread, so the fan-out only queues the payload, back to back for
+ * all robots with the callbacks prepared beforehand; the writers then send in parallel. Per robot it
+ * records, relative to the start of the fan-out, when the payload was queued, when its writer began
+ * sending it and when it was flushed. The start skew is the spread of those start times, i.e. how far
+ * apart the robots got going; sequential writes from JS add a bridge round trip and a flush per robot.
+ */
+final class Broadcast {
+
+    /**
+     * Queues {@code data} on the writer of {@code address}, like {@link SerialSocket#write}.
+     *
+     * @return false if the write queue is full
+     * @throws IOException if the robot is not connected
+     */
+    interface Sender {
+        boolean send(String address, byte[] data, SerialWriter.Callback callback) throws IOException;
+    }
+
+    interface Listener {
+        /**
+         * Called once, when every robot's payload was flushed or failed.
+         */
+        void onComplete(Broadcast broadcast);
+    }
+
+    static final class Robot {
+        final String address;
+        // nanoseconds since the fan-out started, -1 until it happened
+        volatile long queuedNanos = -1;
+        volatile long startedNanos = -1;
+        volatile long writtenNanos = -1;
+        volatile String error = null;
+
+        Robot(String address) {
+            this.address = address;
+        }
+
+        boolean sent() {
+            return writtenNanos >= 0;
+        }
+    }
+
+    private final byte[] data;
+    private final List<Robot> robots;
+    private final Listener listener;
+    private final AtomicInteger pending;
+    private long startNanos; // set before the first send, read by the writers afterwards
+
+    /**
+     * @param data not modified afterwards, shared by all writers
+     */
+    Broadcast(byte[] data, List<String> addresses, Listener listener) {
+        this.data = data;
+        ArrayList<Robot> list = new ArrayList<>(addresses.size());
+        for (String address : addresses)
+            list.add(new Robot(address));
+        this.robots = Collections.unmodifiableList(list);
+        this.listener = listener;
+        this.pending = new AtomicInteger(list.size() + 1); // + the fan-out, so queue times are complete
+    }
+
+    List<Robot> robots() {
+        return robots;
+    }
+
+    void start(Sender sender) {
+        RobotCallback[] callbacks = new RobotCallback[robots.size()];
+        for (int i = 0; i < callbacks.length; i++)
+            callbacks[i] = new RobotCallback(robots.get(i));
+        startNanos = System.nanoTime();
+        for (RobotCallback callback : callbacks) {
+            Robot robot = callback.robot;
+            try {
+                if (sender.send(robot.address, data, callback))
+                    robot.queuedNanos = System.nanoTime() - startNanos;
+                else
+                    fail(robot, "write queue full");
+            } catch (IOException e) {
+                fail(robot, "Not connected");
+            }
+        }
+        done();
+    }
+
+    /**
+     * @return spread of the times the robots' writers began sending, over the robots that got the payload
+     */
+    long startSkewNanos() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Robot robot : robots) {
+            if (!robot.sent())
+                continue;
+            min = Math.min(min, robot.startedNanos);
+            max = Math.max(max, robot.startedNanos);
+        }
+        return max > min ? max - min : 0;
+    }
+
+    /**
+     * @return spread of the robots' flush times, over the robots that got the payload
+     */
+    long writtenSkewNanos() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Robot robot : robots) {
+            if (!robot.sent())
+                continue;
+            min = Math.min(min, robot.writtenNanos);
+            max = Math.max(max, robot.writtenNanos);
+        }
+        return max > min ? max - min : 0;
+    }
+
+    int sent() {
+        int n = 0;
+        for (Robot robot : robots) {
+            if (robot.sent())
+                n++;
+        }
+        return n;
+    }
+
+    private void fail(Robot robot, String message) {
+        robot.error = message;
+        done();
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0)
+            listener.onComplete(this);
+    }
+
+    private final class RobotCallback implements SerialWriter.StartCallback {
+        final Robot robot;
+
+        RobotCallback(Robot robot) {
+            this.robot = robot;
+        }
+
+        @Override
+        public void onStarted(long nanos) {
+            robot.startedNanos = nanos - startNanos;
+        }
+
+        @Override
+        public void onWritten() {
+            robot.writtenNanos = System.nanoTime() - startNanos;
+            done();
+        }
+
+        @Override
+        public void onFailed(IOException e) {
+            fail(robot, e.getMessage() != null ? e.getMessage() : "write failed");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Preallocated single-producer / single-consumer byte ring.
+ *
+ * The producer (socket reader) reads straight into the backing array with
+ * {@link #readFrom(InputStream)}, the consumer (drain stage) copies out with
+ * {@link #drainTo(byte[], int, int)}. Neither side allocates after construction.
+ */
+final class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    private final Object lock = new Object();
+
+    // monotonically increasing positions; index = pos & mask
+    private volatile long writePos = 0;
+    private volatile long readPos = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    ByteRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    int available() {
+        return (int) (writePos - readPos);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Performs one blocking read from {@code in} into the free region of the ring.
+     * Waits for the consumer if the ring is full.
+     *
+     * @return number of bytes read, or -1 on end of stream / closed ring
+     */
+    int readFrom(InputStream in) throws IOException {
+        long w = writePos;
+        int free;
+        synchronized (lock) {
+            while ((free = buffer.length - (int) (w - readPos)) == 0 && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        }
+        if (closed)
+            return -1;
+        int index = (int) (w & mask);
+        int len = in.read(buffer, index, Math.min(free, buffer.length - index));
+        if (len > 0) {
+            synchronized (lock) {
+                writePos = w + len;
+                lock.notifyAll();
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Copies up to {@code max} buffered bytes into {@code dst} without blocking.
+     *
+     * @return number of bytes copied
+     */
+    int drainTo(byte[] dst, int off, int max) {
+        long r = readPos;
+        int len = Math.min(max, (int) (writePos - r));
+        if (len <= 0)
+            return 0;
+        int index = (int) (r & mask);
+        int first = Math.min(len, buffer.length - index);
+        System.arraycopy(buffer, index, dst, off, first);
+        if (first < len)
+            System.arraycopy(buffer, 0, dst, off + first, len - first);
+        synchronized (lock) {
+            readPos = r + len;
+            lock.notifyAll();
+        }
+        return len;
+    }
+
+    /**
+     * Blocks until data is available, the ring is closed or the timeout elapses.
+     *
+     * @return true if data is available
+     */
+    boolean awaitData(long timeoutMillis) throws InterruptedException {
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (writePos == readPos && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                lock.wait(remaining);
+            }
+            return writePos != readPos;
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+}
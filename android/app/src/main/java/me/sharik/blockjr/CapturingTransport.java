@@ -0,0 +1,88 @@
+package me.sharik.blockjr;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transport decorator that appends every chunk read from and written to the link to the
+ * {@link TrafficCapture} currently set in {@code capture}, so a capture can start and stop
+ * while connected. Without a capture it costs one volatile read per chunk.
+ */
+class CapturingTransport implements SerialTransport {
+
+    private final SerialTransport transport;
+    private final AtomicReference<TrafficCapture> capture;
+
+    CapturingTransport(SerialTransport transport, AtomicReference<TrafficCapture> capture) {
+        this.transport = transport;
+        this.capture = capture;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        transport.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FilterInputStream(transport.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0)
+                    record(TrafficCapture.READ, new byte[] { (byte) b }, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0)
+                    record(TrafficCapture.READ, b, off, n);
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return new FilterOutputStream(transport.getOutputStream()) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                record(TrafficCapture.WRITE, new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len); // FilterOutputStream would write byte by byte
+                record(TrafficCapture.WRITE, b, off, len);
+            }
+        };
+    }
+
+    private void record(byte kind, byte[] data, int off, int len) {
+        TrafficCapture c = capture.get();
+        if (c != null)
+            c.append(kind, data, off, len);
+    }
+
+    @Override
+    public String getName() {
+        return transport.getName();
+    }
+
+    @Override
+    public String getAddress() {
+        return transport.getAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
@@ -0,0 +1,45 @@
+package me.sharik.blockjr;
+
+/**
+ * Consistent Overhead Byte Stuffing: frames are COBS encoded and terminated by 0x00.
+ * Malformed frames (delimiter inside a code block) are dropped.
+ */
+class CobsFramer extends SerialFramer {
+
+    private int code = 0;
+    private int remaining = 0;
+
+    CobsFramer(int maxFrameBytes) {
+        super(maxFrameBytes);
+    }
+
+    @Override
+    void feed(byte[] data, int off, int len, FrameListener listener) {
+        for (int i = off; i < off + len; i++) {
+            int b = data[i] & 0xff;
+            if (b == 0) {
+                if (remaining == 0 && code != 0)
+                    emit(listener);
+                else
+                    super.reset();
+                code = 0;
+                remaining = 0;
+            } else if (remaining == 0) {
+                if (code != 0 && code != 0xff)
+                    append((byte) 0);
+                code = b;
+                remaining = b - 1;
+            } else {
+                append((byte) b);
+                remaining--;
+            }
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        code = 0;
+        remaining = 0;
+    }
+}
@@ -0,0 +1,97 @@
+package me.sharik.blockjr;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The link's state machine, held in one atomic field so isConnected and getState answer without
+ * taking the service lock or touching the socket.
+ *
+ * IDLE until the first connect, then CONNECTING, CONNECTED and, with auto-reconnect, RECONNECTING
+ * after a link loss. CLOSED once a link ended for good: disconnected, lost, failed to connect or
+ * reconnecting gave up.
+ */
+final class ConnectionState {
+
+    enum State {
+        IDLE, CONNECTING, CONNECTED, RECONNECTING, CLOSED;
+
+        String jsName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    interface Listener {
+        void onStateChanged(Snapshot previous, Snapshot current);
+    }
+
+    /**
+     * Immutable, so state and address are always read together.
+     */
+    static final class Snapshot {
+        final State state;
+        final String address; // device connected or being dialed, null when IDLE
+        final long sinceMs;
+
+        Snapshot(State state, String address, long sinceMs) {
+            this.state = state;
+            this.address = address;
+            this.sinceMs = sinceMs;
+        }
+    }
+
+    private final AtomicReference<Snapshot> current =
+            new AtomicReference<>(new Snapshot(State.IDLE, null, System.currentTimeMillis()));
+    private final Listener listener;
+
+    ConnectionState(Listener listener) {
+        this.listener = listener;
+    }
+
+    Snapshot get() {
+        return current.get();
+    }
+
+    boolean is(State state) {
+        return current.get().state == state;
+    }
+
+    /**
+     * Moves to {@code state}; a null {@code address} keeps the current one.
+     */
+    void moveTo(State state, String address) {
+        Snapshot prev;
+        Snapshot next;
+        do {
+            prev = current.get();
+            next = new Snapshot(state, address != null ? address : prev.address, System.currentTimeMillis());
+            if (sameAs(prev, next))
+                return;
+        } while (!current.compareAndSet(prev, next));
+        listener.onStateChanged(prev, next);
+    }
+
+    /**
+     * Moves to {@code state} only while in {@code expected}, so a late callback of a superseded
+     * attempt doesn't overwrite a newer state.
+     *
+     * @return true if moved
+     */
+    boolean moveFrom(State expected, State state) {
+        Snapshot prev;
+        Snapshot next;
+        do {
+            prev = current.get();
+            if (prev.state != expected)
+                return false;
+            next = new Snapshot(state, prev.address, System.currentTimeMillis());
+        } while (!current.compareAndSet(prev, next));
+        if (expected != state)
+            listener.onStateChanged(prev, next);
+        return true;
+    }
+
+    private static boolean sameAs(Snapshot a, Snapshot b) {
+        return a.state == b.state && (a.address == null ? b.address == null : a.address.equals(b.address));
+    }
+}
@@ -6,6 +6,7 @@ class Constants {
     static final String INTENT_ACTION_DISCONNECT = "me.sharik.blockjr" + ".Disconnect";
     static final String NOTIFICATION_CHANNEL = "me.sharik.blockjr" + ".Channel";
     static final String INTENT_CLASS_MAIN_ACTIVITY = "me.sharik.blockjr" + ".MainActivity";
+    static final String PREFS_DEVICES = "me.sharik.blockjr" + ".devices";
 
     // values have to be unique within each app
     static final int NOTIFY_MANAGER_START_FOREGROUND_SERVICE = 1001;
@@ -0,0 +1,143 @@
+package me.sharik.blockjr;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates socket chunks ({@link SerialListener#onSerialRead(byte[])}) and hands them on as one
+ * batch ({@link SerialListener#onSerialRead(ArrayDeque)}) once {@code maxBytes} are pending or
+ * {@code maxDelayMs} have passed since the first pending chunk, whichever comes first.
+ *
+ * With batching disabled every chunk is forwarded immediately as a single-element batch.
+ */
+class DataBatcher {
+
+    enum FlushReason { IMMEDIATE, SIZE, DEADLINE, CLOSE }
+
+    private final SerialListener downstream;
+    private final ScheduledExecutorService scheduler;
+    private final Object deliveryLock = new Object();
+
+    private int maxBytes = 0;
+    private long maxDelayMs = 0;
+
+    private ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private ScheduledFuture<?> deadline;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedBytes = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong[] flushes = new AtomicLong[FlushReason.values().length];
+
+    private final Runnable deadlineFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush(FlushReason.DEADLINE);
+        }
+    };
+
+    DataBatcher(SerialListener downstream, ScheduledExecutorService scheduler) {
+        this.downstream = downstream;
+        this.scheduler = scheduler;
+        for (int i = 0; i < flushes.length; i++)
+            flushes[i] = new AtomicLong();
+    }
+
+    /**
+     * @param maxBytes   flush as soon as this many bytes are pending; 0 disables batching
+     * @param maxDelayMs flush at the latest this long after the first pending byte; 0 disables batching
+     */
+    void configure(int maxBytes, long maxDelayMs) {
+        // one step, so chunks batched under the old settings go out before any chunk under the new ones
+        synchronized (deliveryLock) {
+            synchronized (this) {
+                this.maxBytes = Math.max(0, maxBytes);
+                this.maxDelayMs = Math.max(0, maxDelayMs);
+            }
+            flushLocked(FlushReason.IMMEDIATE);
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return maxBytes > 0 && maxDelayMs > 0;
+    }
+
+    synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    void onSerialRead(byte[] data) {
+        FlushReason reason = null;
+        synchronized (this) {
+            pending.add(data);
+            pendingBytes += data.length;
+            if (!isEnabled()) {
+                reason = FlushReason.IMMEDIATE;
+            } else if (pendingBytes >= maxBytes) {
+                reason = FlushReason.SIZE;
+            } else if (deadline == null) {
+                deadline = scheduler.schedule(deadlineFlush, maxDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (reason != null)
+            flush(reason);
+    }
+
+    /**
+     * Delivers everything pending. Called on close so no tail bytes are lost.
+     */
+    void flush(FlushReason reason) {
+        synchronized (deliveryLock) { // keep batches in order across drain and scheduler thread
+            flushLocked(reason);
+        }
+    }
+
+    private void flushLocked(FlushReason reason) {
+        ArrayDeque<byte[]> batch;
+        int size;
+        synchronized (this) {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            size = pendingBytes;
+            pending = new ArrayDeque<>();
+            pendingBytes = 0;
+        }
+        batches.incrementAndGet();
+        batchedBytes.addAndGet(size);
+        flushes[reason.ordinal()].incrementAndGet();
+        long largest;
+        while (size > (largest = largestBatch.get()) && !largestBatch.compareAndSet(largest, size)) {
+            // retry
+        }
+        downstream.onSerialRead(batch);
+    }
+
+    long getBatches() {
+        return batches.get();
+    }
+
+    long getBatchedBytes() {
+        return batchedBytes.get();
+    }
+
+    long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    long getFlushes(FlushReason reason) {
+        return flushes[reason.ordinal()].get();
+    }
+}
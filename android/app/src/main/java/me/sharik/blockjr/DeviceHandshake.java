@@ -0,0 +1,89 @@
+package me.sharik.blockjr;
+
+/**
+ * Post-connect handshake asking the robot for its firmware version and the digest of the program
+ * it has stored.
+ *
+ * Request: {@link #HELLO}. Reply: {@link #HELLO}, firmware major, firmware minor, flags (bit 0: a
+ * program is stored), program hash as 4 bytes big-endian (see {@link BlockProgramCompiler}).
+ * Firmware without handshake support never answers; the handshake then times out.
+ */
+final class DeviceHandshake {
+
+    interface Listener {
+        void onInfo(int major, int minor, boolean hasProgram, int programHash);
+        void onTimeout();
+    }
+
+    static final int HELLO = 0xb4;
+    static final long DEFAULT_TIMEOUT_MS = 1000;
+
+    private static final int REPLY_BYTES = 8;
+    private static final int FLAG_PROGRAM = 0x01;
+
+    private final Listener listener;
+    private final byte[] reply = new byte[REPLY_BYTES];
+    private int length = 0; // 0 until the reply's HELLO byte is seen
+    private boolean finished = false;
+    private TimeoutWheel.Handle timeout;
+
+    DeviceHandshake(Listener listener) {
+        this.listener = listener;
+    }
+
+    static byte[] request() {
+        return new byte[] { (byte) HELLO };
+    }
+
+    /**
+     * Arms the timeout; call right before writing {@link #request()}.
+     */
+    synchronized void start(TimeoutWheel wheel, long timeoutMs) {
+        timeout = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DeviceHandshake.this) {
+                    if (finished)
+                        return;
+                    finished = true;
+                }
+                listener.onTimeout();
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * Ends the handshake without calling the listener.
+     */
+    synchronized void cancel() {
+        finished = true;
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Feeds received bytes; the reply may be split across reads.
+     */
+    void feed(byte[] data, int off, int len) {
+        synchronized (this) {
+            if (finished)
+                return;
+            for (int i = off; i < off + len && length < REPLY_BYTES; i++) {
+                if (length == 0 && (data[i] & 0xff) != HELLO)
+                    continue; // skip whatever the robot sent before the reply
+                reply[length++] = data[i];
+            }
+            if (length < REPLY_BYTES)
+                return;
+            finished = true;
+            if (timeout != null)
+                timeout.cancel();
+        }
+        int hash = (reply[4] & 0xff) << 24 | (reply[5] & 0xff) << 16 | (reply[6] & 0xff) << 8 | (reply[7] & 0xff);
+        listener.onInfo(reply[1] & 0xff, reply[2] & 0xff, (reply[3] & FLAG_PROGRAM) != 0, hash);
+    }
+}
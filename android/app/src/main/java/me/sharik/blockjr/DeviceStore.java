@@ -0,0 +1,95 @@
+package me.sharik.blockjr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the phone remembers about each robot between sessions (last connection, handshake result),
+ * in app-private shared preferences keyed by device address.
+ */
+class DeviceStore {
+
+    static final class Record {
+        @Nullable String name;
+        long lastConnected; // epoch ms, 0 if never connected
+        @Nullable String strategy; // RfcommTransport.Strategy that connected last
+        @Nullable String firmware; // "major.minor" from the handshake, null if never answered
+        boolean hasProgram;
+        int programHash;
+        long checkedAt; // handshake time, epoch ms
+
+        JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            try {
+                o.put("name", name);
+                o.put("lastConnected", lastConnected);
+                o.put("strategy", strategy);
+                o.put("firmware", firmware);
+                o.put("hasProgram", hasProgram);
+                o.put("programHash", programHash);
+                o.put("checkedAt", checkedAt);
+            } catch (JSONException ignored) {}
+            return o;
+        }
+
+        static Record fromJson(JSONObject o) {
+            Record r = new Record();
+            r.name = o.isNull("name") ? null : o.optString("name", null);
+            r.lastConnected = o.optLong("lastConnected", 0);
+            r.strategy = o.isNull("strategy") ? null : o.optString("strategy", null);
+            r.firmware = o.isNull("firmware") ? null : o.optString("firmware", null);
+            r.hasProgram = o.optBoolean("hasProgram", false);
+            r.programHash = o.optInt("programHash", 0);
+            r.checkedAt = o.optLong("checkedAt", 0);
+            return r;
+        }
+    }
+
+    private final SharedPreferences prefs;
+
+    DeviceStore(Context context) {
+        prefs = context.getSharedPreferences(Constants.PREFS_DEVICES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the record for {@code address}, or null if the device is unknown
+     */
+    @Nullable
+    Record get(String address) {
+        String json = prefs.getString(address, null);
+        if (json == null)
+            return null;
+        try {
+            return Record.fromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    void put(String address, Record record) {
+        prefs.edit().putString(address, record.toJson().toString()).apply();
+    }
+
+    /**
+     * @return all remembered devices by address
+     */
+    Map<String, Record> all() {
+        Map<String, Record> records = new HashMap<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String))
+                continue;
+            try {
+                records.put(entry.getKey(), Record.fromJson(new JSONObject((String) entry.getValue())));
+            } catch (JSONException ignored) {}
+        }
+        return records;
+    }
+}
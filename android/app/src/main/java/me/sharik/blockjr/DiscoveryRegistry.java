@@ -0,0 +1,92 @@
+package me.sharik.blockjr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Devices seen during discovery, one entry per address however often the stack reports it.
+ * Written from the discovery receiver, read from plugin calls on other threads.
+ */
+final class DiscoveryRegistry {
+
+    static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    /**
+     * Fields are guarded by the entry itself; {@link #sorted()} hands out copies.
+     */
+    static final class Entry {
+        final String address;
+        String name; // null until the stack resolved it
+        int rssi = RSSI_UNKNOWN;
+        long lastSeenMs;
+
+        private Entry(String address) {
+            this.address = address;
+        }
+    }
+
+    // strongest first, unknown RSSI last, then most recently seen
+    private static final Comparator<Entry> BY_SIGNAL = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.rssi != b.rssi)
+                return Integer.compare(b.rssi, a.rssi);
+            return Long.compare(b.lastSeenMs, a.lastSeenMs);
+        }
+    };
+
+    private final ConcurrentHashMap<String, Entry> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Records a sighting; a null {@code name} or {@link #RSSI_UNKNOWN} keeps the known value.
+     *
+     * @return true if the device is new or its name just became known, i.e. worth telling the UI
+     */
+    boolean onFound(String address, String name, int rssi, long nowMs) {
+        Entry fresh = new Entry(address);
+        Entry entry = devices.putIfAbsent(address, fresh);
+        boolean added = entry == null;
+        if (added)
+            entry = fresh;
+        boolean named = false;
+        synchronized (entry) {
+            if (name != null && !name.equals(entry.name)) {
+                named = entry.name == null;
+                entry.name = name;
+            }
+            if (rssi != RSSI_UNKNOWN)
+                entry.rssi = rssi;
+            entry.lastSeenMs = nowMs;
+        }
+        return added || named;
+    }
+
+    /**
+     * @return a snapshot sorted by signal strength
+     */
+    List<Entry> sorted() {
+        List<Entry> list = new ArrayList<>(devices.size());
+        for (Entry entry : devices.values()) {
+            Entry copy = new Entry(entry.address);
+            synchronized (entry) {
+                copy.name = entry.name;
+                copy.rssi = entry.rssi;
+                copy.lastSeenMs = entry.lastSeenMs;
+            }
+            list.add(copy);
+        }
+        Collections.sort(list, BY_SIGNAL); // on copies, so sightings during the sort can't break it
+        return list;
+    }
+
+    void clear() {
+        devices.clear();
+    }
+
+    int size() {
+        return devices.size();
+    }
+}
@@ -0,0 +1,90 @@
+package me.sharik.blockjr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram with power-of-two microsecond buckets
+ * (bucket i counts samples below 2^i us, the last bucket is unbounded).
+ *
+ * Recording is lock free and allocation free; percentiles are approximate and
+ * report the upper bound of the bucket the percentile falls into.
+ */
+final class LatencyHistogram {
+
+    static final int BUCKETS = 28; // up to ~134 s
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(bucketOf(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros); // 0 -> 0, 1 -> 1, 2..3 -> 2, ...
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long maxMicros() {
+        return maxMicros.get();
+    }
+
+    long meanMicros() {
+        long n = total.get();
+        return n == 0 ? 0 : sumMicros.get() / n;
+    }
+
+    /**
+     * @param p percentile in (0, 100]
+     * @return upper bound of the bucket containing the percentile in microseconds, 0 if empty
+     */
+    long percentileMicros(double p) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p / 100.0 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return i == BUCKETS - 1 ? maxMicros.get() : Math.min(1L << i, Math.max(maxMicros.get(), 1));
+        }
+        return maxMicros.get();
+    }
+
+    long bucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+}
@@ -0,0 +1,48 @@
+package me.sharik.blockjr;
+
+/**
+ * Frames preceded by an unsigned big-endian length of 1 or 2 bytes.
+ * Frames announcing more than {@code maxFrameBytes} are skipped.
+ */
+class LengthPrefixFramer extends SerialFramer {
+
+    private final int lengthBytes;
+    private int headerRead = 0;
+    private int expected = 0;
+
+    LengthPrefixFramer(int lengthBytes, int maxFrameBytes) {
+        super(maxFrameBytes);
+        if (lengthBytes != 1 && lengthBytes != 2)
+            throw new IllegalArgumentException("lengthBytes must be 1 or 2");
+        this.lengthBytes = lengthBytes;
+    }
+
+    @Override
+    void feed(byte[] data, int off, int len, FrameListener listener) {
+        for (int i = off; i < off + len; i++) {
+            byte b = data[i];
+            if (headerRead < lengthBytes) {
+                expected = (expected << 8) | (b & 0xff);
+                if (++headerRead == lengthBytes && expected == 0)
+                    restart();
+                continue;
+            }
+            append(b);
+            if (--expected == 0) {
+                emit(listener);
+                restart();
+            }
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        restart();
+    }
+
+    private void restart() {
+        headerRead = 0;
+        expected = 0;
+    }
+}
@@ -0,0 +1,28 @@
+package me.sharik.blockjr;
+
+/**
+ * Delimiter terminated frames, e.g. newline separated robot responses.
+ * A trailing '\r' before a '\n' delimiter is stripped; empty lines are skipped.
+ */
+class LineFramer extends SerialFramer {
+
+    private final byte delimiter;
+
+    LineFramer(byte delimiter, int maxFrameBytes) {
+        super(maxFrameBytes);
+        this.delimiter = delimiter;
+    }
+
+    @Override
+    void feed(byte[] data, int off, int len, FrameListener listener) {
+        for (int i = off; i < off + len; i++) {
+            byte b = data[i];
+            if (b == delimiter) {
+                if (frameLength() > 0)
+                    emit(listener);
+            } else if (b != '\r' || delimiter != '\n') {
+                append(b);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package me.sharik.blockjr;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Robot links by address, one per robot for the plugin's lifetime: a reconnect reuses the link and
+ * with it the stats and read settings. Also tracks the primary link, the target of calls without an
+ * address, and how many links hold one of the piconet's connection slots.
+ *
+ * Lookups are lock free; creating a link runs under the registry's lock, which callers may also
+ * hold to apply settings to all links atomically with the creation of new ones.
+ */
+final class LinkRegistry<L extends LinkRegistry.Link> {
+
+    interface Link {
+        /**
+         * @return true while connecting, connected or reconnecting
+         */
+        boolean isActive();
+    }
+
+    interface Factory<L> {
+        /**
+         * Called under the registry's lock.
+         */
+        L create(String address);
+    }
+
+    private final int maxActive;
+    private final Factory<L> factory;
+    private final ConcurrentHashMap<String, L> links = new ConcurrentHashMap<>();
+    private volatile String primary = null;
+
+    LinkRegistry(int maxActive, Factory<L> factory) {
+        this.maxActive = maxActive;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the link to {@code address}, created on first use
+     */
+    synchronized L obtain(String address) {
+        L link = links.get(address);
+        if (link == null) {
+            link = factory.create(address);
+            links.put(address, link);
+        }
+        return link;
+    }
+
+    @Nullable
+    L get(String address) {
+        return links.get(address);
+    }
+
+    /**
+     * @return the link to {@code address}, or to the primary robot if null; null if there is none
+     */
+    @Nullable
+    L find(@Nullable String address) {
+        if (address == null)
+            address = primary;
+        return address != null ? links.get(address) : null;
+    }
+
+    Collection<L> all() {
+        return links.values();
+    }
+
+    @Nullable
+    String primary() {
+        return primary;
+    }
+
+    void setPrimary(String address) {
+        primary = address;
+    }
+
+    /**
+     * @return the number of active links other than {@code except}
+     */
+    int activeExcept(String except) {
+        int n = 0;
+        for (Map.Entry<String, L> e : links.entrySet()) {
+            if (!e.getKey().equals(except) && e.getValue().isActive())
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return true if {@code address} can connect without exceeding the connection limit; a link
+     *         that is already active keeps its slot
+     */
+    boolean hasSlotFor(String address) {
+        return activeExcept(address) < maxActive;
+    }
+
+    int maxActive() {
+        return maxActive;
+    }
+}
@@ -0,0 +1,43 @@
+package me.sharik.blockjr;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Link counters for getStats, cheap enough to stay on in release builds: counters are striped
+ * {@link LongAdder}s, so the reader thread, the writer thread and the bridge never contend on one
+ * cache line, and histograms have fixed buckets. Write counts and write-to-flush latency live in
+ * {@link SerialWriter.Stats}.
+ */
+final class LinkStats {
+
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder readChunks = new LongAdder();
+    final LongAdder dataEvents = new LongAdder();
+    final LongAdder connects = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder linkLosses = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+
+    final LatencyHistogram connectTime = new LatencyHistogram();
+    final LatencyHistogram dispatchTime = new LatencyHistogram(); // decoding plus notifyListeners per delivered chunk
+    final LatencyHistogram readChunkBytes = new LatencyHistogram(); // the log2 buckets hold byte counts here
+
+    void onRead(int len) {
+        bytesRead.add(len);
+        readChunks.increment();
+        readChunkBytes.record(len);
+    }
+
+    void reset() {
+        bytesRead.reset();
+        readChunks.reset();
+        dataEvents.reset();
+        connects.reset();
+        connectFailures.reset();
+        linkLosses.reset();
+        reconnects.reset();
+        connectTime.reset();
+        dispatchTime.reset();
+        readChunkBytes.reset();
+    }
+}
@@ -0,0 +1,177 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory transport for tests and benchmarks. The app side is the regular transport API,
+ * the robot side is available through {@link #robotInput()} (bytes the app wrote) and
+ * {@link #robotOutput()} (bytes the app will read).
+ */
+class LoopbackTransport implements SerialTransport {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final String address;
+    private final Pipe toRobot;
+    private final Pipe toApp;
+
+    LoopbackTransport(String address, int capacity) {
+        this.address = address;
+        this.toRobot = new Pipe(capacity);
+        this.toApp = new Pipe(capacity);
+    }
+
+    LoopbackTransport() {
+        this("00:00:00:00:00:00", DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (toApp.closed)
+            throw new IOException("closed");
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return toApp.in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toRobot.out;
+    }
+
+    @Override
+    public String getName() {
+        return "loopback";
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        toRobot.close();
+        toApp.close();
+    }
+
+    InputStream robotInput() {
+        return toRobot.in;
+    }
+
+    OutputStream robotOutput() {
+        return toApp.out;
+    }
+
+    /**
+     * Bounded blocking byte pipe without the writer-thread bookkeeping of PipedInputStream,
+     * so it works with pooled threads.
+     */
+    private static final class Pipe {
+        private final byte[] buffer;
+        private int head = 0;
+        private int count = 0;
+        private volatile boolean closed = false;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Pipe.this) {
+                    return count;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (count == 0) {
+                if (closed)
+                    return -1;
+                await();
+            }
+            int n = Math.min(len, count);
+            int first = Math.min(n, buffer.length - head);
+            System.arraycopy(buffer, head, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+            head = (head + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (closed)
+                    throw new IOException("closed");
+                if (count == buffer.length) {
+                    await();
+                    continue;
+                }
+                int tail = (head + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
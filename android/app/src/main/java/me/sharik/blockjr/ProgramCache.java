@@ -0,0 +1,116 @@
+package me.sharik.blockjr;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * LRU cache of compiled programs keyed by their source blocks, plus the program hashes each robot
+ * has confirmed storing, so re-running an unchanged program neither recompiles nor re-sends it.
+ */
+final class ProgramCache {
+
+    static final int DEFAULT_MAX_PROGRAMS = 32;
+    static final int MAX_HELD_PER_DEVICE = 8; // robot flash holds a few programs at most
+
+    private final int maxPrograms;
+    private final LinkedHashMap<String, BlockProgramCompiler.Program> programs;
+    private final HashMap<String, LinkedHashSet<Integer>> held = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    ProgramCache(int maxPrograms) {
+        this.maxPrograms = maxPrograms;
+        this.programs = new LinkedHashMap<String, BlockProgramCompiler.Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BlockProgramCompiler.Program> eldest) {
+                return size() > ProgramCache.this.maxPrograms;
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException as {@link BlockProgramCompiler#compile}
+     */
+    BlockProgramCompiler.Program compile(JSONArray blocks) {
+        String key = sourceKey(blocks);
+        synchronized (this) {
+            BlockProgramCompiler.Program program = programs.get(key);
+            if (program != null) {
+                hits++;
+                return program;
+            }
+            misses++;
+        }
+        BlockProgramCompiler.Program program = BlockProgramCompiler.compile(blocks);
+        synchronized (this) {
+            programs.put(key, program);
+        }
+        return program;
+    }
+
+    // only type and value affect the program, not the block ids or positions
+    private static String sourceKey(JSONArray blocks) {
+        StringBuilder sb = new StringBuilder(blocks.length() * 8);
+        for (int i = 0; i < blocks.length(); i++) {
+            JSONObject block = blocks.optJSONObject(i);
+            if (block == null) {
+                sb.append('|');
+                continue;
+            }
+            sb.append(block.optString("type", "")).append(':');
+            Object value = block.opt("value");
+            if (value != null)
+                sb.append(value.getClass().getSimpleName().charAt(0)).append(value);
+            sb.append('|');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records that the robot at {@code address} stored program {@code hash}.
+     */
+    synchronized void markHeld(String address, int hash) {
+        LinkedHashSet<Integer> hashes = held.get(address);
+        if (hashes == null) {
+            hashes = new LinkedHashSet<>();
+            held.put(address, hashes);
+        }
+        hashes.remove(hash);
+        hashes.add(hash);
+        if (hashes.size() > MAX_HELD_PER_DEVICE) {
+            Iterator<Integer> oldest = hashes.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    synchronized boolean isHeld(String address, int hash) {
+        LinkedHashSet<Integer> hashes = held.get(address);
+        return hashes != null && hashes.contains(hash);
+    }
+
+    /**
+     * Drops what is known about the programs stored on the robot at {@code address}.
+     */
+    synchronized void forget(String address) {
+        held.remove(address);
+    }
+
+    synchronized int size() {
+        return programs.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+}
@@ -0,0 +1,192 @@
+package me.sharik.blockjr;
+
+/**
+ * Uploads a program in acknowledged chunks with a sliding window (go-back-N), so it never
+ * overruns the robot's UART buffer yet keeps several chunks in flight on the slow link.
+ *
+ * Chunk: {@link #CHUNK} (or {@link #CHUNK_LAST} for the final one), sequence number, payload
+ * length, payload, XOR of sequence, length and payload. The robot answers {@link #ACK}, the sequence
+ * number of the last chunk it received in order (cumulative) and {@code ACK ^ sequence}; the check
+ * byte keeps a stray 0xA5 in telemetry or text from acknowledging chunks. Sequence numbers wrap at
+ * 256, which is unambiguous as long as the window stays below 128. If the oldest unacknowledged chunk
+ * is not acknowledged within the ACK timeout, everything from it onwards is resent.
+ */
+final class ProgramUpload {
+
+    interface Link {
+        /**
+         * @return false if the packet could not be queued, it is then resent after the ACK timeout
+         */
+        boolean send(byte[] packet);
+    }
+
+    interface Listener {
+        void onProgress(int acked, int total);
+        void onComplete(int chunks, int retransmits);
+        void onFailed(String message);
+    }
+
+    static final int CHUNK = 0xc5;
+    static final int CHUNK_LAST = 0xc6;
+    static final int ACK = 0xa5;
+
+    static final int DEFAULT_CHUNK_BYTES = 48; // fits a 64 byte Arduino RX buffer with header
+    static final int MAX_CHUNK_BYTES = 255;
+    static final int DEFAULT_WINDOW = 4;
+    static final int MAX_WINDOW = 64;
+    static final long DEFAULT_ACK_TIMEOUT_MS = 500;
+    static final int DEFAULT_MAX_RETRIES = 5;
+
+    private final byte[][] packets;
+    private final int window;
+    private final long ackTimeoutMs;
+    private final int maxRetries;
+    private final TimeoutWheel wheel;
+    private final Link link;
+    private final Listener listener;
+
+    private int base = 0; // oldest unacknowledged chunk
+    private int next = 0; // next chunk to send
+    private int retries = 0; // timeouts in a row without progress
+    private int retransmits = 0;
+    private int ackState = 0; // parser: 0 idle, 1 ACK byte received, 2 sequence number received
+    private int ackSeq;
+    private boolean finished = false;
+    private TimeoutWheel.Handle timer;
+    private int timerGeneration = 0; // a timer that fired while being re-armed is stale
+
+    ProgramUpload(byte[] data, int chunkBytes, int window, long ackTimeoutMs, int maxRetries,
+                  TimeoutWheel wheel, Link link, Listener listener) {
+        if (chunkBytes <= 0 || chunkBytes > MAX_CHUNK_BYTES)
+            throw new IllegalArgumentException("chunkSize must be in 1.." + MAX_CHUNK_BYTES);
+        if (window <= 0 || window > MAX_WINDOW)
+            throw new IllegalArgumentException("window must be in 1.." + MAX_WINDOW);
+        this.packets = split(data, chunkBytes);
+        this.window = window;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.wheel = wheel;
+        this.link = link;
+        this.listener = listener;
+    }
+
+    private static byte[][] split(byte[] data, int chunkBytes) {
+        int count = Math.max(1, (data.length + chunkBytes - 1) / chunkBytes);
+        byte[][] packets = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int off = i * chunkBytes;
+            int len = Math.min(chunkBytes, data.length - off);
+            byte[] packet = new byte[len + 4];
+            packet[0] = (byte) (i == count - 1 ? CHUNK_LAST : CHUNK);
+            packet[1] = (byte) i;
+            packet[2] = (byte) len;
+            int check = packet[1] ^ packet[2];
+            for (int j = 0; j < len; j++) {
+                packet[3 + j] = data[off + j];
+                check ^= data[off + j];
+            }
+            packet[3 + len] = (byte) check;
+            packets[i] = packet;
+        }
+        return packets;
+    }
+
+    int chunks() {
+        return packets.length;
+    }
+
+    synchronized void start() {
+        fill();
+    }
+
+    /**
+     * Fails the upload unless it already finished.
+     */
+    void cancel(String message) {
+        synchronized (this) {
+            if (finished)
+                return;
+            finish();
+        }
+        listener.onFailed(message);
+    }
+
+    /**
+     * Feeds received bytes, picking out acknowledgements.
+     */
+    void feed(byte[] data, int off, int len) {
+        int acked = -1;
+        boolean complete = false;
+        synchronized (this) {
+            if (finished)
+                return;
+            for (int i = off; i < off + len; i++) {
+                int b = data[i] & 0xff;
+                if (ackState == 1) {
+                    ackSeq = b;
+                    ackState = 2;
+                } else if (ackState == 2 && b == (ACK ^ ackSeq)) {
+                    ackState = 0;
+                    // map the wrapped sequence number into [base, base + 255]
+                    int chunk = base + ((ackSeq - base) & 0xff);
+                    if (chunk < next) {
+                        base = chunk + 1;
+                        retries = 0;
+                        acked = base;
+                    }
+                } else if (ackState == 2 && ackSeq == ACK) {
+                    ackSeq = b; // check failed, but the supposed sequence number may start the real ACK
+                } else {
+                    ackState = b == ACK ? 1 : 0;
+                }
+            }
+            if (acked < 0)
+                return;
+            if (base == packets.length) {
+                finish();
+                complete = true;
+            } else {
+                fill();
+            }
+        }
+        listener.onProgress(acked, packets.length);
+        if (complete)
+            listener.onComplete(packets.length, retransmits);
+    }
+
+    // sends while the window has room, then (re)arms the ACK timer; holds the lock
+    private void fill() {
+        while (next < packets.length && next - base < window && link.send(packets[next]))
+            next++;
+        if (timer != null)
+            timer.cancel();
+        final int generation = ++timerGeneration;
+        timer = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timeout(generation);
+            }
+        }, ackTimeoutMs);
+    }
+
+    private void timeout(int generation) {
+        synchronized (this) {
+            if (finished || generation != timerGeneration)
+                return;
+            if (++retries <= maxRetries) {
+                retransmits += next - base;
+                next = base; // go back N
+                fill();
+                return;
+            }
+            finish();
+        }
+        listener.onFailed("upload timed out");
+    }
+
+    private void finish() {
+        finished = true;
+        if (timer != null)
+            timer.cancel();
+    }
+}
@@ -0,0 +1,217 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in auto-reconnect: after an unexpected link loss the last device is re-dialed with
+ * exponential backoff and jitter. Writes issued meanwhile are buffered and handed back once the
+ * link is up again, so a robot briefly out of range recovers without the UI noticing.
+ *
+ * Dialing is asynchronous; the owner reports the outcome with {@link #onConnected} or
+ * {@link #onConnectFailed}.
+ */
+final class Reconnector {
+
+    interface Dialer {
+        void dial(String address);
+    }
+
+    interface Listener {
+        void onReconnecting(String address, int attempt, long delayMs);
+        /** {@code buffered} are the writes issued while reconnecting, in order, to be sent now */
+        void onReconnected(String address, int attempts, List<PendingWrite> buffered);
+        void onGaveUp(String address, int attempts);
+    }
+
+    static final class PendingWrite {
+        final byte[] data;
+        final SerialWriter.Callback callback;
+
+        private PendingWrite(byte[] data, SerialWriter.Callback callback) {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Delay before attempt n is {@code min(maxDelayMs, baseDelayMs * 2^(n-1))}, reduced by up to
+     * {@code jitter} of itself at random so a classroom of tablets doesn't redial in lockstep.
+     */
+    static final class Policy {
+        volatile boolean enabled = false;
+        volatile int maxAttempts = 8;
+        volatile long baseDelayMs = 250;
+        volatile long maxDelayMs = 8000;
+        volatile double jitter = 0.5;
+    }
+
+    static long backoffMs(Policy policy, int attempt, Random random) {
+        long delay = policy.baseDelayMs << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > policy.maxDelayMs)
+            delay = policy.maxDelayMs;
+        return delay - (long) (delay * policy.jitter * random.nextDouble());
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Policy policy;
+    private final Dialer dialer;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    // guarded by this
+    private String address = null; // last successfully connected device
+    private boolean active = false;
+    private int attempt = 0;
+    private ScheduledFuture<?> pendingDial = null;
+    private final ArrayList<PendingWrite> buffered = new ArrayList<>();
+
+    Reconnector(ScheduledExecutorService scheduler, Policy policy, Dialer dialer, Listener listener) {
+        this.scheduler = scheduler;
+        this.policy = policy;
+        this.dialer = dialer;
+        this.listener = listener;
+    }
+
+    synchronized boolean isReconnecting() {
+        return active;
+    }
+
+    /**
+     * @return the device being re-dialed, or the last connected one
+     */
+    synchronized String address() {
+        return address;
+    }
+
+    /**
+     * Call on every successful connect.
+     */
+    void onConnected(String connectedAddress) {
+        List<PendingWrite> writes;
+        int attempts;
+        synchronized (this) {
+            boolean resumed = active && connectedAddress.equals(address);
+            address = connectedAddress;
+            if (!resumed) {
+                cancelLocked();
+                return;
+            }
+            active = false;
+            attempts = attempt;
+            attempt = 0;
+            writes = new ArrayList<>(buffered);
+            buffered.clear();
+        }
+        listener.onReconnected(connectedAddress, attempts, writes);
+    }
+
+    /**
+     * Call when a connect attempt failed.
+     *
+     * @return true if the failure belonged to a reconnect attempt
+     */
+    boolean onConnectFailed() {
+        synchronized (this) {
+            if (!active)
+                return false;
+        }
+        scheduleNext();
+        return true;
+    }
+
+    /**
+     * Call when an established link dropped without the user asking for it.
+     *
+     * @return true if reconnecting started, otherwise the loss should be reported as a disconnect
+     */
+    boolean onLinkLost() {
+        synchronized (this) {
+            if (!policy.enabled || address == null || active)
+                return active;
+            active = true;
+            attempt = 0;
+        }
+        scheduleNext();
+        return true;
+    }
+
+    /**
+     * Buffers a write while reconnecting.
+     *
+     * @return false if not reconnecting or {@code limit} writes are already buffered
+     */
+    synchronized boolean buffer(byte[] data, SerialWriter.Callback callback, int limit) {
+        if (!active || buffered.size() >= limit)
+            return false;
+        buffered.add(new PendingWrite(data, callback));
+        return true;
+    }
+
+    /**
+     * Stops reconnecting (user disconnect or connect to another device); buffered writes fail.
+     */
+    void cancel() {
+        List<PendingWrite> failed;
+        synchronized (this) {
+            failed = cancelLocked();
+        }
+        fail(failed);
+    }
+
+    private List<PendingWrite> cancelLocked() {
+        active = false;
+        attempt = 0;
+        if (pendingDial != null) {
+            pendingDial.cancel(false);
+            pendingDial = null;
+        }
+        List<PendingWrite> failed = new ArrayList<>(buffered);
+        buffered.clear();
+        return failed;
+    }
+
+    private void scheduleNext() {
+        final String target;
+        int n;
+        long delay;
+        List<PendingWrite> failed = null;
+        synchronized (this) {
+            target = address;
+            n = ++attempt;
+            if (n > policy.maxAttempts) {
+                failed = cancelLocked();
+                delay = -1;
+            } else {
+                delay = backoffMs(policy, n, random);
+                pendingDial = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Reconnector.this) {
+                            if (!active)
+                                return;
+                            pendingDial = null;
+                        }
+                        dialer.dial(target);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (failed != null) {
+            fail(failed);
+            listener.onGaveUp(target, n - 1);
+        } else {
+            listener.onReconnecting(target, n, delay);
+        }
+    }
+
+    private static void fail(List<PendingWrite> writes) {
+        for (PendingWrite write : writes)
+            write.callback.onFailed(new IOException("Not connected"));
+    }
+}
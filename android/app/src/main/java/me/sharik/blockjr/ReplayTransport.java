@@ -0,0 +1,144 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the robot side of a {@link TrafficCapture} back: the chunks the app read are handed to the
+ * read path again, each no earlier than its original time divided by {@code speed}, or as fast as
+ * they are taken with speed 0. The stream ends after the last chunk. Writes are accepted and
+ * discarded, so the same capture gives the same reads whatever the app sends.
+ */
+class ReplayTransport implements SerialTransport {
+
+    static final String ADDRESS = "00:00:00:00:00:00";
+
+    private final List<TrafficCapture.Record> reads = new ArrayList<>();
+    private final double speed;
+    private final Object lock = new Object();
+    private volatile boolean closed = false;
+    private long startNanos;
+    private long written = 0;
+
+    /**
+     * @param speed 1 for the original pace, 10 for ten times faster, 0 for no delays
+     */
+    ReplayTransport(List<TrafficCapture.Record> records, double speed) {
+        if (speed < 0)
+            throw new IllegalArgumentException("speed must be >= 0");
+        for (TrafficCapture.Record record : records) {
+            if (record.kind == TrafficCapture.READ && record.data.length > 0)
+                reads.add(record);
+        }
+        this.speed = speed;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (closed)
+            throw new IOException("closed");
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private int record = 0;
+            private int pos = 0; // within the current record
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                if (record >= reads.size() || closed)
+                    return -1;
+                TrafficCapture.Record r = reads.get(record);
+                if (pos == 0)
+                    awaitDue(r.nanos);
+                if (closed)
+                    return -1;
+                int n = Math.min(len, r.data.length - pos);
+                System.arraycopy(r.data, pos, b, off, n);
+                pos += n;
+                if (pos == r.data.length) {
+                    record++;
+                    pos = 0;
+                }
+                return n;
+            }
+        };
+    }
+
+    private void awaitDue(long nanos) throws IOException {
+        if (speed == 0)
+            return;
+        long due = startNanos + (long) (nanos / speed);
+        synchronized (lock) {
+            long wait;
+            while (!closed && (wait = due - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (lock) {
+                    if (closed)
+                        throw new IOException("closed");
+                    written += len;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return bytes the app wrote during the replay
+     */
+    long written() {
+        synchronized (lock) {
+            return written;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "replay";
+    }
+
+    @Override
+    public String getAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package me.sharik.blockjr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Matches robot responses to outstanding commands so several commands can be in flight at once.
+ *
+ * The firmware answers commands in order, so responses are assigned first-in first-out: received
+ * bytes are scanned for the terminator of the oldest pending request, the bytes before it complete
+ * that request and scanning continues with the next one. Bytes arriving while nothing is pending
+ * are ignored here (they are still delivered as "data" events).
+ */
+final class ResponseMatcher {
+
+    interface Callback {
+        void onResponse(byte[] data, int off, int len);
+        void onError(String message);
+    }
+
+    static final int MAX_PENDING = 32;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+
+    final class Request {
+        private final byte[] terminator;
+        private final Callback callback;
+        private TimeoutWheel.Handle timeout;
+
+        private Request(byte[] terminator, Callback callback) {
+            this.terminator = terminator;
+            this.callback = callback;
+        }
+    }
+
+    private final TimeoutWheel wheel;
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+    private int scanned = 0;
+
+    ResponseMatcher(TimeoutWheel wheel) {
+        this.wheel = wheel;
+    }
+
+    /**
+     * Registers a request; must be called before its command is written.
+     *
+     * @return the request, or null if {@link #MAX_PENDING} requests are already outstanding
+     */
+    synchronized Request add(String terminator, long timeoutMs, Callback callback) {
+        if (pending.size() >= MAX_PENDING)
+            return null;
+        final Request request = new Request(terminator.getBytes(StandardCharsets.UTF_8), callback);
+        request.timeout = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (remove(request))
+                    request.callback.onError("timeout");
+            }
+        }, timeoutMs);
+        pending.add(request);
+        return request;
+    }
+
+    /**
+     * Withdraws a request whose command could not be written.
+     */
+    void cancel(Request request) {
+        if (remove(request))
+            request.timeout.cancel();
+    }
+
+    synchronized int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Feeds received bytes; completed requests are called back on the calling thread.
+     */
+    void feed(byte[] data, int off, int len) {
+        ArrayDeque<Request> completed = null;
+        ArrayDeque<int[]> ranges = null;
+        byte[] snapshot = null;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return;
+            append(data, off, len);
+            int start = 0;
+            Request head;
+            while ((head = pending.peek()) != null) {
+                int end = indexOf(head.terminator, start);
+                if (end < 0)
+                    break;
+                pending.poll();
+                head.timeout.cancel();
+                if (completed == null) {
+                    completed = new ArrayDeque<>();
+                    ranges = new ArrayDeque<>();
+                }
+                completed.add(head);
+                ranges.add(new int[] { start, end - start });
+                start = end + head.terminator.length;
+                scanned = start;
+            }
+            if (completed != null)
+                snapshot = Arrays.copyOf(buffer, start);
+            consume(start);
+            if (pending.isEmpty())
+                consume(length);
+            else if (length > MAX_RESPONSE_BYTES)
+                consume(length - MAX_RESPONSE_BYTES);
+        }
+        if (completed != null) {
+            for (Request request : completed) {
+                int[] range = ranges.poll();
+                request.callback.onResponse(snapshot, range[0], range[1]);
+            }
+        }
+    }
+
+    /**
+     * Fails all outstanding requests, e.g. on disconnect.
+     */
+    void failAll(String message) {
+        ArrayDeque<Request> failed;
+        synchronized (this) {
+            failed = new ArrayDeque<>(pending);
+            pending.clear();
+            consume(length);
+        }
+        for (Request request : failed) {
+            request.timeout.cancel();
+            request.callback.onError(message);
+        }
+    }
+
+    private synchronized boolean remove(Request request) {
+        if (!pending.remove(request))
+            return false;
+        scanned = 0; // the new head may use a different terminator
+        if (pending.isEmpty())
+            consume(length);
+        return true;
+    }
+
+    private void append(byte[] data, int off, int len) {
+        if (length + len > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(length + len, buffer.length * 2));
+        System.arraycopy(data, off, buffer, length, len);
+        length += len;
+    }
+
+    private int indexOf(byte[] terminator, int from) {
+        // resume where the previous scan stopped, minus a possibly split terminator
+        int i = Math.max(from, scanned - terminator.length + 1);
+        outer:
+        for (; i <= length - terminator.length; i++) {
+            for (int j = 0; j < terminator.length; j++) {
+                if (buffer[i + j] != terminator[j])
+                    continue outer;
+            }
+            return i;
+        }
+        scanned = Math.max(from, length);
+        return -1;
+    }
+
+    private void consume(int n) {
+        System.arraycopy(buffer, n, buffer, 0, length - n);
+        length -= n;
+        scanned = Math.max(0, scanned - n);
+    }
+}
@@ -0,0 +1,255 @@
+package me.sharik.blockjr;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bluetooth classic RFCOMM link using the serial port profile.
+ *
+ * Connecting tries the given {@link Strategy strategies} in order, each with its own deadline:
+ * {@link BluetoothSocket#connect()} has no timeout of its own (the stack gives up after 12 s or
+ * more), so a timer closes the socket when the deadline passes. Attempts run one after another
+ * since a device can only be paged by one connect at a time. An attempt that completes just as its
+ * deadline fires has its socket closed under it and counts as timed out.
+ */
+class RfcommTransport implements SerialTransport {
+
+    enum Strategy {
+        /** authenticated SDP lookup of the SPP record, the platform default */
+        SECURE,
+        /** unauthenticated SDP lookup; cheap HC-05/HC-06 modules often accept this faster */
+        INSECURE,
+        /** RFCOMM channel 1 directly, skipping SDP (hidden createRfcommSocket API) */
+        CHANNEL
+    }
+
+    /**
+     * The remote device as far as connecting goes, so the strategy loop can run on the JVM.
+     */
+    interface Device {
+        String getName();
+        String getAddress();
+        /**
+         * @return an unconnected socket for {@code strategy}
+         */
+        Socket createSocket(Strategy strategy) throws IOException;
+    }
+
+    /**
+     * {@link #close()} from another thread must make a blocked {@link #connect()} throw.
+     */
+    interface Socket extends Closeable {
+        void connect() throws IOException;
+        InputStream getInputStream() throws IOException;
+        OutputStream getOutputStream() throws IOException;
+    }
+
+    static final Strategy[] DEFAULT_STRATEGIES = { Strategy.SECURE, Strategy.INSECURE, Strategy.CHANNEL };
+    static final long DEFAULT_TIMEOUT_MS = 4000;
+
+    private static final UUID BLUETOOTH_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final Device device;
+    private final Strategy[] strategies;
+    private final long timeoutMs;
+    private final ScheduledExecutorService timer;
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile Strategy connectedStrategy;
+
+    RfcommTransport(BluetoothDevice device, Strategy[] strategies, long timeoutMs, ScheduledExecutorService timer) {
+        this(new Bluetooth(device), strategies, timeoutMs, timer);
+    }
+
+    RfcommTransport(Device device, Strategy[] strategies, long timeoutMs, ScheduledExecutorService timer) {
+        this.device = device;
+        this.strategies = strategies;
+        this.timeoutMs = timeoutMs;
+        this.timer = timer;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        IOException last = null;
+        for (Strategy strategy : strategies) {
+            if (closed)
+                throw new IOException("closed while connecting");
+            final Socket s;
+            try {
+                s = device.createSocket(strategy);
+            } catch (IOException e) {
+                last = e;
+                continue;
+            }
+            socket = s;
+            if (closed) { // raced with close()
+                s.close();
+                throw new IOException("closed while connecting");
+            }
+            final AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> deadline = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    try {
+                        s.close(); // unblocks connect()
+                    } catch (IOException ignored) {
+                    }
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+            IOException failure;
+            try {
+                s.connect();
+                // lost the race if the deadline already ran or is closing the socket right now
+                if (deadline.cancel(false) && !timedOut.get()) {
+                    connectedStrategy = strategy;
+                    return;
+                }
+                failure = null;
+            } catch (IOException e) {
+                deadline.cancel(false);
+                failure = e;
+            }
+            last = failure == null || timedOut.get()
+                    ? new IOException(strategy + " connect timed out after " + timeoutMs + " ms") : failure;
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+        throw last != null ? last : new IOException("no connect strategy");
+    }
+
+    /**
+     * @return {@code strategies} with {@code preferred} (the one that worked last time) moved to the front
+     */
+    static Strategy[] preferring(Strategy[] strategies, Strategy preferred) {
+        Strategy[] ordered = strategies.clone();
+        for (int i = 0; i < ordered.length; i++) {
+            if (ordered[i] == preferred) {
+                System.arraycopy(ordered, 0, ordered, 1, i);
+                ordered[0] = preferred;
+                break;
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the strategy that established the link, null before
+     */
+    Strategy getConnectedStrategy() {
+        return connectedStrategy;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return requireSocket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return requireSocket().getOutputStream();
+    }
+
+    @Override
+    public String getName() {
+        String name = device.getName();
+        return name != null ? name : device.getAddress();
+    }
+
+    @Override
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket s = socket;
+        socket = null;
+        if (s != null)
+            s.close();
+    }
+
+    private Socket requireSocket() throws IOException {
+        Socket s = socket;
+        if (s == null)
+            throw new IOException("not connected");
+        return s;
+    }
+
+    private static final class Bluetooth implements Device {
+        private final BluetoothDevice device;
+
+        Bluetooth(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public String getName() {
+            return device.getName();
+        }
+
+        @Override
+        public String getAddress() {
+            return device.getAddress();
+        }
+
+        @Override
+        public Socket createSocket(Strategy strategy) throws IOException {
+            switch (strategy) {
+                case INSECURE:
+                    return new BluetoothChannel(device.createInsecureRfcommSocketToServiceRecord(BLUETOOTH_SPP));
+                case CHANNEL:
+                    try {
+                        Method m = device.getClass().getMethod("createRfcommSocket", int.class);
+                        return new BluetoothChannel((BluetoothSocket) m.invoke(device, 1));
+                    } catch (Exception e) {
+                        throw new IOException("createRfcommSocket not available", e);
+                    }
+                default:
+                    return new BluetoothChannel(device.createRfcommSocketToServiceRecord(BLUETOOTH_SPP));
+            }
+        }
+    }
+
+    private static final class BluetoothChannel implements Socket {
+        private final BluetoothSocket socket;
+
+        BluetoothChannel(BluetoothSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            socket.connect();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
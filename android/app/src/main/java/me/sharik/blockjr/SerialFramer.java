@@ -0,0 +1,81 @@
+package me.sharik.blockjr;
+
+/**
+ * Splits the raw socket byte stream into complete protocol frames.
+ *
+ * Framers are stateful and keep partial frames across {@link #feed} calls, so they must be
+ * fed from one thread at a time. The frame passed to the listener lives in a reused buffer
+ * and is only valid for the duration of the callback.
+ */
+abstract class SerialFramer {
+
+    interface FrameListener {
+        void onFrame(byte[] frame, int off, int len);
+    }
+
+    static final int DEFAULT_MAX_FRAME_BYTES = 4096;
+
+    private final int maxFrameBytes;
+    private byte[] frame = new byte[64];
+    private int frameLen = 0;
+    private boolean overflow = false;
+
+    SerialFramer(int maxFrameBytes) {
+        if (maxFrameBytes <= 0)
+            throw new IllegalArgumentException("maxFrameBytes must be > 0");
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * @param mode one of "line", "length", "cobs", "slip"
+     * @return framer for the mode, or null for unknown modes
+     */
+    static SerialFramer create(String mode, byte delimiter, int lengthBytes, int maxFrameBytes) {
+        switch (mode) {
+            case "line":
+                return new LineFramer(delimiter, maxFrameBytes);
+            case "length":
+                return new LengthPrefixFramer(lengthBytes, maxFrameBytes);
+            case "cobs":
+                return new CobsFramer(maxFrameBytes);
+            case "slip":
+                return new SlipFramer(maxFrameBytes);
+            default:
+                return null;
+        }
+    }
+
+    abstract void feed(byte[] data, int off, int len, FrameListener listener);
+
+    void reset() {
+        frameLen = 0;
+        overflow = false;
+    }
+
+    int frameLength() {
+        return frameLen;
+    }
+
+    /**
+     * Appends to the current frame. Bytes beyond {@code maxFrameBytes} mark the frame as
+     * overflowed, it will then be dropped instead of emitted.
+     */
+    void append(byte b) {
+        if (frameLen == maxFrameBytes) {
+            overflow = true;
+            return;
+        }
+        if (frameLen == frame.length)
+            frame = java.util.Arrays.copyOf(frame, Math.min(maxFrameBytes, frame.length * 2));
+        frame[frameLen++] = b;
+    }
+
+    /**
+     * Completes the current frame, emitting it unless it overflowed.
+     */
+    void emit(FrameListener listener) {
+        if (!overflow)
+            listener.onFrame(frame, 0, frameLen);
+        reset();
+    }
+}
@@ -0,0 +1,96 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Two-stage read pipeline: a reader thread moves socket bytes into a {@link ByteRingBuffer},
+ * a drain thread empties the ring and hands everything that accumulated meanwhile to the
+ * {@link Sink} in one call. While the sink is busy (e.g. crossing the WebView bridge) the
+ * reader keeps filling the ring, so bursts are coalesced into fewer, larger events.
+ */
+class SerialReadPump {
+
+    interface Sink {
+        /** called on the drain thread; {@code data} is reused after return */
+        void onData(byte[] data, int off, int len);
+        /** called once on the drain thread after the last {@link #onData} */
+        void onEnd(IOException e);
+    }
+
+    static final int DEFAULT_CAPACITY = 16 * 1024;
+    private static final long DRAIN_POLL_MS = 250;
+
+    private final InputStream in;
+    private final ByteRingBuffer ring;
+    private final byte[] drainBuffer;
+    private final Sink sink;
+    private volatile IOException error;
+    private Future<?> readTask;
+
+    SerialReadPump(InputStream in, int capacity, Sink sink) {
+        this.in = in;
+        this.ring = new ByteRingBuffer(capacity);
+        this.drainBuffer = new byte[ring.capacity()];
+        this.sink = sink;
+    }
+
+    /**
+     * Runs the read and drain loops on {@code executor}, which must provide two threads.
+     */
+    void start(ExecutorService executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        });
+        readTask = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        });
+    }
+
+    /**
+     * Closes the ring; the drain stage delivers what is left and then calls {@link Sink#onEnd}.
+     */
+    void stop() {
+        ring.close();
+        if (readTask != null)
+            readTask.cancel(true);
+    }
+
+    private void readLoop() {
+        try {
+            //noinspection StatementWithEmptyBody
+            while (ring.readFrom(in) >= 0) {
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            ring.close();
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            while (true) {
+                if (!ring.awaitData(DRAIN_POLL_MS)) {
+                    if (ring.isClosed())
+                        break;
+                    continue;
+                }
+                int len = ring.drainTo(drainBuffer, 0, drainBuffer.length);
+                if (len > 0)
+                    sink.onData(drainBuffer, 0, len);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            sink.onEnd(error);
+        }
+    }
+}
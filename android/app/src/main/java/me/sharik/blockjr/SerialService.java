@@ -1,21 +1,78 @@
 package me.sharik.blockjr;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ServiceInfo;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
 
-public class SerialService extends Service implements SerialListener {
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the serial connections independent of the WebView lifecycle, one per robot keyed by its
+ * address, so a tablet can drive several robots at once.
+ *
+ * While any robot is connected or being redialled the service runs in the foreground, so the RFCOMM
+ * links survive the app being backgrounded and the plugin can re-attach on resume instead of
+ * reconnecting. Connect,
+ * read and write tasks of all connections share one bounded executor owned by the service.
+ */
+public class SerialService extends Service {
+
+    /**
+     * Routes the events of each connection; a null listener drops them (e.g. while no UI is attached).
+     */
+    interface Listeners {
+        @Nullable
+        SerialListener forAddress(String address);
+    }
 
     private static final String TAG = "SerialService";
+    static final int MAX_CONNECTIONS = 7; // active peripherals in one Bluetooth classic piconet
+    // per connection a connect task, then reader, drain and writer threads
+    private static final int MAX_THREADS = 4 * MAX_CONNECTIONS + 4;
 
     private final IBinder binder = new SerialBinder();
-    private SerialSocket socket;
-    public boolean connected = false;
-    private SerialListener listener;
+    private final SerialThreadFactory threadFactory = new SerialThreadFactory(TAG);
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, MAX_THREADS, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), threadFactory);
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+    private boolean receiverRegistered = false; // guarded by this
+    // notification "Disconnect" action, ends all connections
+    private final BroadcastReceiver disconnectBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Listeners l = listeners;
+            for (String address : new ArrayList<>(connections.keySet())) {
+                disconnect(address); // disconnect now, else would be queued until UI re-attached
+                SerialListener listener = l != null ? l.forAddress(address) : null;
+                if (listener != null)
+                    listener.onSerialIoError(new IOException("background disconnect"));
+            }
+        }
+    };
+    private volatile Listeners listeners;
 
     public class SerialBinder extends Binder {
         public SerialService getService() {
@@ -23,6 +80,65 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
+    /**
+     * One robot link; reports its socket's events to the listener of its address.
+     */
+    private final class Connection implements SerialListener {
+        final String address;
+        final SerialSocket socket;
+        volatile boolean connected = false;
+        volatile boolean reconnecting = false; // lost, the plugin redials: keep the foreground
+
+        Connection(String address, SerialSocket socket) {
+            this.address = address;
+            this.socket = socket;
+        }
+
+        @Nullable
+        private SerialListener listener() {
+            Listeners l = listeners;
+            return l != null ? l.forAddress(address) : null;
+        }
+
+        @Override
+        public void onSerialConnect() {
+            connected = true;
+            reconnecting = false;
+            updateForeground();
+            SerialListener l = listener();
+            if (l != null) l.onSerialConnect();
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+            connected = false;
+            SerialListener l = listener();
+            if (l != null) l.onSerialConnectError(e);
+        }
+
+        @Override
+        public void onSerialRead(byte[] data) {
+            SerialListener l = listener();
+            if (l != null) l.onSerialRead(data);
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            SerialListener l = listener();
+            if (l != null) l.onSerialRead(datas);
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            connected = false;
+            // the listener decides first whether to redial, dropping the foreground in between
+            // could not be undone from the background
+            SerialListener l = listener();
+            if (l != null) l.onSerialIoError(e);
+            updateForeground();
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -39,72 +155,209 @@ public class SerialService extends Service implements SerialListener {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "onStartCommand()");
-        return START_STICKY;
+        return START_NOT_STICKY; // a killed service cannot restore the links on its own
     }
 
     @Override
     public void onDestroy() {
-        disconnect();
+        for (String address : new ArrayList<>(connections.keySet()))
+            disconnect(address);
+        executor.shutdownNow();
         super.onDestroy();
         Log.d(TAG, "onDestroy()");
     }
 
-    public void attach(SerialListener listener) {
-        this.listener = listener;
+    public void attach(Listeners listeners) {
+        this.listeners = listeners;
     }
 
     public void detach() {
-        this.listener = null;
+        this.listeners = null;
+    }
+
+    SerialThreadFactory getThreadFactory() {
+        return threadFactory;
     }
 
-    public void connect(SerialSocket socket) throws Exception {
-        disconnect(); // close existing before new
-        this.socket = socket;
-        this.socket.connect(this); // ✅ pass SerialListener
-        connected = true;
+    ThreadPoolExecutor getExecutor() {
+        return executor;
     }
 
-    public void disconnect() {
-        if (socket != null) {
-            try { socket.disconnect(); } catch (Exception ignored) {}
-            socket = null;
+    /**
+     * Connects asynchronously, replacing an existing connection to the same address; the outcome
+     * is reported to the listener of {@code transport.getAddress()}.
+     */
+    void connect(SerialTransport transport, SerialWriter.Settings writerSettings, SerialWriter.Stats writerStats) {
+        String address = transport.getAddress();
+        Connection connection;
+        synchronized (this) {
+            Connection previous = close(address); // close existing before new
+            if (connections.size() >= MAX_CONNECTIONS) {
+                connection = null;
+            } else {
+                connection = new Connection(address, new SerialSocket(transport, executor, writerSettings, writerStats));
+                connection.reconnecting = previous != null && previous.reconnecting;
+                connections.put(address, connection);
+                if (!receiverRegistered) {
+                    ContextCompat.registerReceiver(this, disconnectBroadcastReceiver,
+                            new IntentFilter(Constants.INTENT_ACTION_DISCONNECT), ContextCompat.RECEIVER_NOT_EXPORTED);
+                    receiverRegistered = true;
+                }
+            }
+        }
+        updateForeground();
+        if (connection == null) {
+            Listeners l = listeners;
+            SerialListener listener = l != null ? l.forAddress(address) : null;
+            if (listener != null)
+                listener.onSerialConnectError(new IOException("at most " + MAX_CONNECTIONS + " robots can be connected"));
+            return;
         }
-        connected = false;
+        connection.socket.connect(connection);
+    }
+
+    /**
+     * Closes the connection to {@code address}, if any; no more events are reported for it.
+     */
+    public synchronized void disconnect(String address) {
+        close(address);
+        updateForeground();
+    }
+
+    /**
+     * Keeps the service in the foreground for the lost connection to {@code address} while the
+     * plugin redials it, until it connects again or is disconnected.
+     */
+    void holdForReconnect(String address) {
+        Connection c = connections.get(address);
+        if (c != null)
+            c.reconnecting = true;
     }
 
-    public void write(byte[] data) throws Exception {
-        if (socket != null) {
-            socket.write(data);
-        } else {
-            throw new Exception("No socket connected");
+    @Nullable
+    private synchronized Connection close(String address) {
+        Connection connection = connections.remove(address);
+        if (connection != null) {
+            try { connection.socket.disconnect(); } catch (Exception ignored) {}
+            connection.connected = false;
+        }
+        if (connections.isEmpty() && receiverRegistered) {
+            try {
+                unregisterReceiver(disconnectBroadcastReceiver);
+            } catch (Exception ignored) {}
+            receiverRegistered = false;
         }
+        return connection;
     }
 
-    // SerialListener callbacks
-    @Override
-    public void onSerialConnect() {
-        if (listener != null) listener.onSerialConnect();
+    /**
+     * @return false if the write queue is full
+     * @throws IOException if not connected
+     */
+    boolean write(String address, byte[] data, SerialWriter.Callback callback) throws IOException {
+        Connection c = connections.get(address);
+        if (c == null)
+            throw new IOException("No socket connected");
+        return c.socket.write(data, callback);
     }
 
-    @Override
-    public void onSerialConnectError(Exception e) {
-        connected = false;
-        if (listener != null) listener.onSerialConnectError(e);
+    int writeQueueDepth(String address) {
+        Connection c = connections.get(address);
+        return c != null ? c.socket.writeQueueDepth() : 0;
     }
 
-    @Override
-    public void onSerialRead(byte[] data) {
-        if (listener != null) listener.onSerialRead(data);
+    boolean isConnected(String address) {
+        Connection c = connections.get(address);
+        return c != null && c.connected;
     }
 
-    @Override
-    public void onSerialRead(java.util.ArrayDeque<byte[]> datas) {
-        if (listener != null) listener.onSerialRead(datas);
+    /**
+     * @return true while a connection to {@code address} exists, connected or not; false once
+     *         disconnected, e.g. from the notification
+     */
+    boolean hasConnection(String address) {
+        return connections.containsKey(address);
     }
 
-    @Override
-    public void onSerialIoError(Exception e) {
-        connected = false;
-        if (listener != null) listener.onSerialIoError(e);
+    /**
+     * @return addresses of the connected robots
+     */
+    List<String> getConnectedAddresses() {
+        ArrayList<String> addresses = new ArrayList<>();
+        for (Connection c : connections.values()) {
+            if (c.connected)
+                addresses.add(c.address);
+        }
+        return addresses;
+    }
+
+    @Nullable
+    String getName(String address) {
+        Connection c = connections.get(address);
+        return c != null ? c.socket.getName() : null;
+    }
+
+    // foreground while at least one robot is connected or being redialled
+    private synchronized void updateForeground() {
+        List<String> connected = getConnectedAddresses();
+        String reconnecting = null;
+        for (Connection c : connections.values()) {
+            if (c.reconnecting && !c.connected)
+                reconnecting = c.address;
+        }
+        if (connected.isEmpty() && reconnecting == null)
+            stopForegroundNotification();
+        else if (connected.isEmpty())
+            startForegroundNotification("Reconnecting to " + getName(reconnecting));
+        else if (connected.size() == 1)
+            startForegroundNotification("Connected to " + getName(connected.get(0)));
+        else
+            startForegroundNotification("Connected to " + connected.size() + " robots");
+    }
+
+    private void startForegroundNotification(String text) {
+        // started state keeps the service alive after the plugin unbinds
+        try {
+            startService(new Intent(this, SerialService.class));
+        } catch (IllegalStateException e) {
+            // not allowed from the background (Android 8+), the bound service keeps running meanwhile
+            Log.w(TAG, "startService failed", e);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(Constants.NOTIFICATION_CHANNEL, "Robot connection",
+                    NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(channel);
+        }
+        Intent disconnectIntent = new Intent()
+                .setPackage(getPackageName())
+                .setAction(Constants.INTENT_ACTION_DISCONNECT);
+        Intent restartIntent = new Intent()
+                .setClassName(this, Constants.INTENT_CLASS_MAIN_ACTIVITY)
+                .setAction(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER);
+        PendingIntent disconnectPendingIntent = PendingIntent.getBroadcast(this, 1, disconnectIntent, PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent restartPendingIntent = PendingIntent.getActivity(this, 1, restartIntent, PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new NotificationCompat.Builder(this, Constants.NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(text)
+                .setContentIntent(restartPendingIntent)
+                .setOngoing(true)
+                .addAction(0, "Disconnect", disconnectPendingIntent)
+                .build();
+        try {
+            ServiceCompat.startForeground(this, Constants.NOTIFY_MANAGER_START_FOREGROUND_SERVICE, notification,
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } catch (Exception e) {
+            // e.g. missing notification/foreground permission: keep the link, just without background guarantee
+            Log.w(TAG, "startForeground failed", e);
+        }
+    }
+
+    private void stopForegroundNotification() {
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf(); // stays alive while the plugin is bound
     }
 }
@@ -1,117 +1,133 @@
 package me.sharik.blockjr;
 
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.UUID;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
+/**
+ * Connection engine on top of a {@link SerialTransport}: connects, then runs the read pump and
+ * the writer queue, reporting to a {@link SerialListener}. Plain Java, so the whole pipeline
+ * can run on the JVM against a {@link LoopbackTransport}.
+ */
 class SerialSocket implements Runnable {
 
-    private static final UUID BLUETOOTH_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private final ExecutorService executor;
+    private final SerialWriter.Settings writerSettings;
+    private final SerialWriter.Stats writerStats;
+    private volatile SerialListener listener;
+    private final SerialTransport transport;
+    private volatile SerialReadPump readPump;
+    private volatile SerialWriter writer;
+    private volatile boolean connected;
+    private volatile boolean disconnected;
 
-    private final BroadcastReceiver disconnectBroadcastReceiver;
+    /**
+     * @param executor runs the connect, read, drain and write tasks; shared and owned by the caller
+     *                 so reconnects don't leak threads
+     */
+    SerialSocket(SerialTransport transport, ExecutorService executor,
+                 SerialWriter.Settings writerSettings, SerialWriter.Stats writerStats) {
+        this.transport = transport;
+        this.executor = executor;
+        this.writerSettings = writerSettings;
+        this.writerStats = writerStats;
+    }
 
-    private final Context context;
-    private SerialListener listener;
-    private final BluetoothDevice device;
-    private BluetoothSocket socket;
-    private boolean connected;
+    String getName() {
+        return transport.getName();
+    }
 
-    SerialSocket(Context context, BluetoothDevice device) {
-        if(context instanceof android.app.Activity)
-            throw new IllegalArgumentException("expected non UI context");
-        this.context = context;
-        this.device = device;
-        disconnectBroadcastReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if(listener != null)
-                    listener.onSerialIoError(new IOException("background disconnect"));
-                disconnect(); // disconnect now, else would be queued until UI re-attached
-            }
-        };
+    String getAddress() {
+        return transport.getAddress();
     }
 
-    String getName() {
-        return device.getName() != null ? device.getName() : device.getAddress();
+    boolean isConnected() {
+        return connected;
     }
 
     /**
      * connect-success and most connect-errors are returned asynchronously to listener
      */
-    void connect(SerialListener listener) throws IOException {
+    void connect(SerialListener listener) {
         this.listener = listener;
-        context.registerReceiver(disconnectBroadcastReceiver, new IntentFilter(Constants.INTENT_ACTION_DISCONNECT));
-        Executors.newSingleThreadExecutor().submit(this);
+        executor.execute(this);
     }
 
     void disconnect() {
         listener = null; // ignore remaining data and errors
-        // connected = false; // run loop will reset connected
-        if(socket != null) {
-            try {
-                socket.close();
-            } catch (Exception ignored) {
-            }
-            socket = null;
+        connected = false;
+        disconnected = true; // stops a connect still in progress
+        SerialWriter w = writer;
+        writer = null;
+        if (w != null)
+            w.stop();
+        if (readPump != null) {
+            readPump.stop();
+            readPump = null;
         }
         try {
-            context.unregisterReceiver(disconnectBroadcastReceiver);
+            transport.close();
         } catch (Exception ignored) {
         }
     }
 
-    void write(byte[] data) throws IOException {
-        if (!connected)
+    /**
+     * Queues {@code data} on the writer thread, {@code callback} fires once it is flushed.
+     *
+     * @return false if the write queue is full
+     */
+    boolean write(byte[] data, SerialWriter.Callback callback) throws IOException {
+        SerialWriter w = writer;
+        if (!connected || w == null)
             throw new IOException("not connected");
-        socket.getOutputStream().write(data);
+        return w.submit(data, callback);
+    }
+
+    int writeQueueDepth() {
+        SerialWriter w = writer;
+        return w != null ? w.queueDepth() : 0;
     }
 
     @Override
-    public void run() { // connect & read
+    public void run() { // connect, then hand over to read pump and writer
+        boolean reported = false;
         try {
-            socket = device.createRfcommSocketToServiceRecord(BLUETOOTH_SPP);
-            socket.connect();
+            transport.connect();
+            if (disconnected)
+                throw new IOException("disconnected while connecting");
+            writer = new SerialWriter(transport.getOutputStream(), writerSettings, writerStats);
+            readPump = new SerialReadPump(transport.getInputStream(), SerialReadPump.DEFAULT_CAPACITY, new SerialReadPump.Sink() {
+                @Override
+                public void onData(byte[] data, int off, int len) {
+                    if(listener != null)
+                        listener.onSerialRead(Arrays.copyOfRange(data, off, off + len));
+                }
+
+                @Override
+                public void onEnd(IOException e) {
+                    connected = false;
+                    if (listener != null)
+                        listener.onSerialIoError(e != null ? e : new IOException("connection closed"));
+                    disconnect();
+                }
+            });
+            connected = true;
+            writer.start(executor);
             if(listener != null)
                 listener.onSerialConnect();
+            reported = true;
+            readPump.start(executor);
         } catch (Exception e) {
-            if(listener != null)
-                listener.onSerialConnectError(e);
-            try {
-                socket.close();
-            } catch (Exception ignored) {
-            }
-            socket = null;
-            return;
-        }
-        connected = true;
-        try {
-            byte[] buffer = new byte[1024];
-            int len;
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                len = socket.getInputStream().read(buffer);
-                byte[] data = Arrays.copyOf(buffer, len);
-                if(listener != null)
-                    listener.onSerialRead(data);
-            }
-        } catch (Exception e) {
-            connected = false;
-            if (listener != null)
-                listener.onSerialIoError(e);
-            try {
-                socket.close();
-            } catch (Exception ignored) {
+            // also a full executor or a failing listener: don't leave a half started link behind
+            SerialListener l = listener;
+            disconnect();
+            if(l != null) {
+                if (reported)
+                    l.onSerialIoError(e);
+                else
+                    l.onSerialConnectError(e);
             }
-            socket = null;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+package me.sharik.blockjr;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names the serial I/O threads and counts them, so thread leaks across reconnects are visible.
+ */
+final class SerialThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger live = new AtomicInteger();
+
+    SerialThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                live.incrementAndGet();
+                try {
+                    r.run();
+                } finally {
+                    live.decrementAndGet();
+                }
+            }
+        }, prefix + "-" + created.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    int created() {
+        return created.get();
+    }
+
+    int live() {
+        return live.get();
+    }
+}
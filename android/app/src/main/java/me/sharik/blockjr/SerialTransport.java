@@ -0,0 +1,32 @@
+package me.sharik.blockjr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte stream link to a robot. {@link SerialSocket} runs its read and write pipeline on top of a
+ * transport, so the pipeline can be exercised off-device with {@link LoopbackTransport}.
+ */
+interface SerialTransport extends Closeable {
+
+    /**
+     * Blocks until the link is established.
+     */
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    String getName();
+
+    String getAddress();
+
+    /**
+     * Closes the link; blocked reads and writes fail or return end of stream. May be called from any thread.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,273 @@
+package me.sharik.blockjr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer thread owning the socket {@link OutputStream}. Commands are queued in a
+ * bounded queue, so a stalled link never blocks the caller beyond the configured overflow policy.
+ * Each command's {@link Callback} fires on the writer thread once its bytes are flushed.
+ *
+ * With coalescing enabled, commands arriving within a short window after the first one are
+ * merged into a single write and flush of at most {@code maxBytes}, so a burst of small commands
+ * costs one radio round-trip instead of one per command.
+ */
+class SerialWriter {
+
+    interface Callback {
+        void onWritten();
+        void onFailed(IOException e);
+    }
+
+    /**
+     * A callback that is also told, on the writer thread, when its bytes start going out.
+     */
+    interface StartCallback extends Callback {
+        void onStarted(long nanos);
+    }
+
+    enum Overflow { REJECT, BLOCK }
+
+    static final int DEFAULT_CAPACITY = 64;
+    static final long DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+    static final int DEFAULT_COALESCE_MAX_BYTES = 990; // common RFCOMM frame size
+
+    /**
+     * Queue and coalescing configuration. Queue settings apply to writers created afterwards,
+     * coalescing changes are picked up by running writers.
+     */
+    static final class Settings {
+        volatile int capacity = DEFAULT_CAPACITY;
+        volatile Overflow overflow = Overflow.REJECT;
+        volatile long blockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+        volatile long coalesceWindowMs = 0; // 0 disables coalescing
+        volatile int coalesceMaxBytes = DEFAULT_COALESCE_MAX_BYTES;
+    }
+
+    /**
+     * Counters shared by the writers of consecutive connections.
+     */
+    static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong packets = new AtomicLong();
+
+        void reset() {
+            latency.reset();
+            written.set(0);
+            bytes.set(0);
+            rejected.set(0);
+            packets.set(0);
+        }
+    }
+
+    private static final class Command {
+        final byte[] data;
+        final Callback callback;
+        final long enqueuedNanos;
+
+        Command(byte[] data, Callback callback) {
+            this.data = data;
+            this.callback = callback;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final OutputStream out;
+    private final ArrayBlockingQueue<Command> queue;
+    private final int capacity;
+    private final Overflow overflow;
+    private final long blockTimeoutMs;
+    private final Settings settings;
+    private final Stats stats;
+    private volatile boolean closed = false;
+    private Future<?> task;
+
+    // writer thread only
+    private final ArrayList<Command> batch = new ArrayList<>();
+    private byte[] packet = new byte[0];
+    private Command carry = null;
+
+    SerialWriter(OutputStream out, Settings settings, Stats stats) {
+        this.out = out;
+        this.capacity = settings.capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflow = settings.overflow;
+        this.blockTimeoutMs = settings.blockTimeoutMs;
+        this.settings = settings;
+        this.stats = stats;
+    }
+
+    void start(ExecutorService executor) {
+        task = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        });
+    }
+
+    /**
+     * Queues {@code data}, which must not be modified afterwards.
+     *
+     * @return false if the queue is full (after waiting up to the block timeout with {@link Overflow#BLOCK})
+     *         or the writer is closed
+     */
+    boolean submit(byte[] data, Callback callback) {
+        if (closed)
+            return false;
+        Command command = new Command(data, callback);
+        boolean queued;
+        if (overflow == Overflow.BLOCK) {
+            try {
+                queued = queue.offer(command, blockTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(command);
+        }
+        if (!queued)
+            stats.rejected.incrementAndGet();
+        else if (closed && queue.remove(command))
+            callback.onFailed(new IOException("Not connected")); // raced with stop()
+        return queued;
+    }
+
+    /**
+     * Stops the writer thread; commands not yet written fail with {@code "Not connected"}.
+     */
+    void stop() {
+        closed = true;
+        if (task != null)
+            task.cancel(true);
+        failPending(new IOException("Not connected"));
+    }
+
+    int queueDepth() {
+        return queue.size();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    Overflow overflow() {
+        return overflow;
+    }
+
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                Command command = carry != null ? carry : queue.take();
+                carry = null;
+                batch.add(command);
+                if (closed)
+                    break; // stopped while waiting, the command is failed below
+                int len = command.data.length;
+                long window = TimeUnit.MILLISECONDS.toNanos(settings.coalesceWindowMs);
+                int maxBytes = settings.coalesceMaxBytes;
+                if (window > 0 && len < maxBytes)
+                    len = collect(len, maxBytes, System.nanoTime() + window);
+                try {
+                    notifyStarted();
+                    if (batch.size() == 1) {
+                        out.write(command.data);
+                    } else {
+                        out.write(pack(len), 0, len);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    closed = true;
+                    failBatch(e);
+                    failPending(e);
+                    return;
+                }
+                stats.packets.incrementAndGet();
+                stats.bytes.addAndGet(len);
+                long now = System.nanoTime();
+                for (Command done : batch) {
+                    stats.latency.recordNanos(now - done.enqueuedNanos);
+                    stats.written.incrementAndGet();
+                    done.callback.onWritten();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // stopped
+        } finally {
+            // stop() may have come between iterations, with a command carried over from coalescing,
+            // or after its own drain of the queue; every command ends with exactly one callback
+            IOException e = new IOException("Not connected");
+            failBatch(e);
+            failPending(e);
+        }
+    }
+
+    /**
+     * Adds commands arriving before {@code deadline} to the batch while they fit into {@code maxBytes}.
+     *
+     * @return total batch length
+     */
+    private int collect(int len, int maxBytes, long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            Command next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                break;
+            if (len + next.data.length > maxBytes) {
+                carry = next;
+                break;
+            }
+            batch.add(next);
+            len += next.data.length;
+        }
+        return len;
+    }
+
+    private void notifyStarted() {
+        long now = System.nanoTime();
+        for (Command command : batch) {
+            if (command.callback instanceof StartCallback)
+                ((StartCallback) command.callback).onStarted(now);
+        }
+    }
+
+    private byte[] pack(int len) {
+        if (packet.length < len)
+            packet = new byte[len];
+        int pos = 0;
+        for (Command command : batch) {
+            System.arraycopy(command.data, 0, packet, pos, command.data.length);
+            pos += command.data.length;
+        }
+        return packet;
+    }
+
+    private void failBatch(IOException e) {
+        for (Command command : batch)
+            command.callback.onFailed(e);
+        batch.clear();
+        if (carry != null) {
+            carry.callback.onFailed(e);
+            carry = null;
+        }
+    }
+
+    private void failPending(IOException e) {
+        ArrayList<Command> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Command command : pending)
+            command.callback.onFailed(e);
+    }
+}
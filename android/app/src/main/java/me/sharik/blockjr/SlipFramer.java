@@ -0,0 +1,43 @@
+package me.sharik.blockjr;
+
+/**
+ * RFC 1055 SLIP frames terminated by END (0xC0) with ESC (0xDB) escaping.
+ */
+class SlipFramer extends SerialFramer {
+
+    static final int END = 0xc0;
+    static final int ESC = 0xdb;
+    static final int ESC_END = 0xdc;
+    static final int ESC_ESC = 0xdd;
+
+    private boolean escaped = false;
+
+    SlipFramer(int maxFrameBytes) {
+        super(maxFrameBytes);
+    }
+
+    @Override
+    void feed(byte[] data, int off, int len, FrameListener listener) {
+        for (int i = off; i < off + len; i++) {
+            int b = data[i] & 0xff;
+            if (b == END) {
+                if (frameLength() > 0)
+                    emit(listener);
+                escaped = false;
+            } else if (escaped) {
+                append((byte) (b == ESC_END ? END : b == ESC_ESC ? ESC : b));
+                escaped = false;
+            } else if (b == ESC) {
+                escaped = true;
+            } else {
+                append((byte) b);
+            }
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        escaped = false;
+    }
+}
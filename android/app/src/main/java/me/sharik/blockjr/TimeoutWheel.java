@@ -0,0 +1,115 @@
+package me.sharik.blockjr;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel: many pending timeouts share one periodic tick on the scheduler instead of
+ * one scheduled task (or thread) each. Resolution is one tick; the tick only runs while timeouts
+ * are pending.
+ */
+final class TimeoutWheel {
+
+    final class Handle {
+        private final Runnable task;
+        private int rounds;
+        private boolean cancelled = false;
+
+        private Handle(Runnable task, int rounds) {
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        /**
+         * @return true if the timeout had not fired yet
+         */
+        boolean cancel() {
+            synchronized (TimeoutWheel.this) {
+                if (cancelled)
+                    return false;
+                cancelled = true;
+                if (--pending == 0)
+                    stopTicking();
+                return true;
+            }
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long tickMs;
+    private final ArrayList<ArrayList<Handle>> slots;
+    private int cursor = 0;
+    private int pending = 0;
+    private ScheduledFuture<?> ticker;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    TimeoutWheel(ScheduledExecutorService scheduler, long tickMs, int slotCount) {
+        this.scheduler = scheduler;
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++)
+            slots.add(new ArrayList<Handle>());
+    }
+
+    /**
+     * Runs {@code task} on the scheduler thread after roughly {@code delayMs}, rounded up to whole ticks.
+     */
+    synchronized Handle schedule(Runnable task, long delayMs) {
+        long ticks = Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        int n = slots.size();
+        Handle handle = new Handle(task, (int) ((ticks - 1) / n));
+        slots.get((int) ((cursor + ticks) % n)).add(handle);
+        if (pending++ == 0)
+            ticker = scheduler.scheduleAtFixedRate(tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        return handle;
+    }
+
+    synchronized int pending() {
+        return pending;
+    }
+
+    private void tick() {
+        ArrayList<Runnable> expired = null;
+        synchronized (this) {
+            cursor = (cursor + 1) % slots.size();
+            Iterator<Handle> it = slots.get(cursor).iterator();
+            while (it.hasNext()) {
+                Handle handle = it.next();
+                if (handle.cancelled) {
+                    it.remove();
+                } else if (handle.rounds > 0) {
+                    handle.rounds--;
+                } else {
+                    it.remove();
+                    handle.cancelled = true;
+                    pending--;
+                    if (expired == null)
+                        expired = new ArrayList<>();
+                    expired.add(handle.task);
+                }
+            }
+            if (pending == 0)
+                stopTicking();
+        }
+        if (expired != null) {
+            for (Runnable task : expired)
+                task.run();
+        }
+    }
+
+    private void stopTicking() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package me.sharik.blockjr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only capture of everything that crossed a link, so firmware-specific field bugs can be
+ * reproduced with {@link ReplayTransport}.
+ *
+ * File: {@link #MAGIC}, {@link #VERSION}, then per chunk a record of kind ({@link #READ} or
+ * {@link #WRITE}), nanoseconds since the capture started (8 bytes), length (4 bytes) and the bytes,
+ * all big-endian. The file is memory-mapped in regions of {@link #REGION_BYTES}, so an append from
+ * the reader or writer thread is a memory copy rather than a system call. Mapped pages start out
+ * zeroed and no kind is 0, so a capture cut short by a crash still reads back up to its last
+ * complete record.
+ */
+final class TrafficCapture implements Closeable {
+
+    static final int MAGIC = 0x424a4350; // "BJCP"
+    static final int VERSION = 1;
+    static final byte READ = 'R';
+    static final byte WRITE = 'W';
+
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 1 + 8 + 4;
+    static final int REGION_BYTES = 1 << 20;
+    static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    static final class Record {
+        final byte kind;
+        final long nanos; // since the capture started
+        final byte[] data;
+
+        Record(byte kind, long nanos, byte[] data) {
+            this.kind = kind;
+            this.nanos = nanos;
+            this.data = data;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final long startNanos;
+
+    // guarded by this
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long size; // bytes appended so far, including the header
+    private long records = 0;
+    private long dropped = 0; // records beyond maxBytes
+    private boolean closed = false;
+
+    TrafficCapture(File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            raf.setLength(0);
+            map(0, HEADER_BYTES);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+        size = HEADER_BYTES;
+        startNanos = System.nanoTime();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized long records() {
+        return records;
+    }
+
+    synchronized long bytes() {
+        return size;
+    }
+
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Appends one chunk; once the capture reached its size limit or failed, chunks are only counted
+     * as dropped, the link itself is never affected.
+     */
+    void append(byte kind, byte[] data, int off, int len) {
+        long nanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+            if (closed)
+                return;
+            int recordBytes = RECORD_HEADER_BYTES + len;
+            if (size + recordBytes > maxBytes) {
+                dropped++;
+                return;
+            }
+            try {
+                if (region.remaining() < recordBytes)
+                    map(size, Math.max(REGION_BYTES, recordBytes));
+            } catch (IOException e) {
+                dropped++;
+                return;
+            }
+            region.putLong((int) (size - regionStart) + 1, nanos);
+            region.putInt((int) (size - regionStart) + 9, len);
+            region.position((int) (size - regionStart) + RECORD_HEADER_BYTES);
+            region.put(data, off, len);
+            region.put((int) (size - regionStart), kind); // last, so a torn record reads as the end
+            size += recordBytes;
+            records++;
+        }
+    }
+
+    // maps [start, start + length); the new region overlaps the unused tail of the previous one
+    private void map(long start, int length) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+        regionStart = start;
+    }
+
+    /**
+     * Trims the file to the appended records and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            region.force();
+            region = null;
+            channel.truncate(size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a capture back, up to its last complete record.
+     *
+     * @throws IOException if the file is not a capture
+     */
+    static List<Record> read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC)
+                throw new IOException(file.getName() + " is not a capture");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported capture version " + version);
+            ArrayList<Record> records = new ArrayList<>();
+            try {
+                while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                    byte kind = buffer.get();
+                    if (kind != READ && kind != WRITE)
+                        break;
+                    long nanos = buffer.getLong();
+                    int len = buffer.getInt();
+                    if (len < 0 || len > buffer.remaining())
+                        break;
+                    byte[] data = new byte[len];
+                    buffer.get(data);
+                    records.add(new Record(kind, nanos, data));
+                }
+            } catch (BufferUnderflowException ignored) {
+                // truncated record
+            }
+            return records;
+        } finally {
+            in.close();
+        }
+    }
+}
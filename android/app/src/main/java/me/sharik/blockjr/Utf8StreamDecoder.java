@@ -0,0 +1,68 @@
+package me.sharik.blockjr;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable UTF-8 decoder for a chunked byte stream. An incomplete multi-byte sequence at the end
+ * of one chunk is kept and completed by the next chunk instead of turning into U+FFFD.
+ */
+final class Utf8StreamDecoder {
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer in = ByteBuffer.allocate(1024);
+    private CharBuffer out = CharBuffer.allocate(1024);
+
+    /**
+     * Decodes {@code data} together with bytes carried over from the previous call.
+     */
+    String decode(byte[] data, int off, int len) {
+        ensureCapacity(len);
+        in.put(data, off, len);
+        in.flip();
+        out.clear();
+        decoder.decode(in, out, false);
+        in.compact();
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * Decodes a self-contained frame, dropping any carried-over bytes.
+     */
+    String decodeFrame(byte[] data, int off, int len) {
+        reset();
+        ensureCapacity(len);
+        in.put(data, off, len);
+        in.flip();
+        out.clear();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        in.clear();
+        decoder.reset();
+        out.flip();
+        return out.toString();
+    }
+
+    void reset() {
+        decoder.reset();
+        in.clear();
+    }
+
+    private void ensureCapacity(int len) {
+        if (in.remaining() < len) {
+            ByteBuffer bigger = ByteBuffer.allocate(in.position() + len);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        // UTF-8 never yields more chars than bytes
+        if (out.capacity() < in.position() + len)
+            out = CharBuffer.allocate(in.position() + len);
+    }
+}
@@ -0,0 +1,57 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class BlockProgramCompilerTest {
+
+    private static JSONArray blocks(Object... typeValuePairs) {
+        JSONArray arr = new JSONArray();
+        for (int i = 0; i < typeValuePairs.length; i += 2) {
+            JSONObject b = new JSONObject();
+            b.put("type", typeValuePairs[i]);
+            if (typeValuePairs[i + 1] != null)
+                b.put("value", typeValuePairs[i + 1]);
+            arr.put(b);
+        }
+        return arr;
+    }
+
+    @Test
+    public void foldsLikeExecuteBlocks() {
+        BlockProgramCompiler.Program p = BlockProgramCompiler.compile(blocks(
+                "green-flag", null, "up", null, "delay", 3, "down", null, "delay", 2, "delay", "4", "delay", 1, "up", null));
+        assertEquals("up(3)_down(2)_delay(5)_up(0)", p.toText());
+        assertEquals(8, p.blocks);
+    }
+
+    @Test
+    public void encodesOpcodes() {
+        BlockProgramCompiler.Program p = BlockProgramCompiler.compile(blocks("up", null, "delay", 300, "down", null));
+        byte[] expected = {
+                (byte) BlockProgramCompiler.MAGIC, BlockProgramCompiler.VERSION, 2,
+                BlockProgramCompiler.OP_UP, (byte) 0xac, 0x02, // 300 as varint
+                BlockProgramCompiler.OP_DOWN, 0,
+        };
+        assertArrayEquals(expected, p.code);
+    }
+
+    @Test
+    public void missingOrZeroDelayCountsAsOne() {
+        assertEquals("delay(2)", BlockProgramCompiler.compile(blocks("delay", null, "delay", "x")).toText());
+        assertEquals("up(1)", BlockProgramCompiler.compile(blocks("up", null, "delay", "0")).toText());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownBlock() {
+        BlockProgramCompiler.compile(blocks("up", null, "spin", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFractionalDelay() {
+        BlockProgramCompiler.compile(blocks("delay", 1.5));
+    }
+}
@@ -0,0 +1,123 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BroadcastTest {
+
+    private static final byte[] PROGRAM = "up(3)_delay(2)\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static class Completion implements Broadcast.Listener {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void onComplete(Broadcast broadcast) {
+            calls.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    private SerialSocket connect(LoopbackTransport transport) throws InterruptedException {
+        SerialSocket socket = new SerialSocket(transport, executor, new SerialWriter.Settings(), new SerialWriter.Stats());
+        final CountDownLatch connected = new CountDownLatch(1);
+        socket.connect(new SerialListener() {
+            @Override public void onSerialConnect() { connected.countDown(); }
+            @Override public void onSerialConnectError(Exception e) {}
+            @Override public void onSerialRead(byte[] data) {}
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) {}
+            @Override public void onSerialIoError(Exception e) {}
+        });
+        assertTrue(connected.await(2, TimeUnit.SECONDS));
+        return socket;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n')
+            line.append((char) c);
+        return line.toString();
+    }
+
+    @Test
+    public void fansOutToEveryRobot() throws Exception {
+        List<String> addresses = Arrays.asList("AA", "BB", "CC");
+        final HashMap<String, SerialSocket> sockets = new HashMap<>();
+        HashMap<String, LoopbackTransport> transports = new HashMap<>();
+        for (String address : addresses) {
+            LoopbackTransport transport = new LoopbackTransport(address, 1024);
+            transports.put(address, transport);
+            sockets.put(address, connect(transport));
+        }
+        Completion completion = new Completion();
+        Broadcast broadcast = new Broadcast(PROGRAM, addresses, completion);
+        broadcast.start(new Broadcast.Sender() {
+            @Override
+            public boolean send(String address, byte[] data, SerialWriter.Callback callback) throws IOException {
+                return sockets.get(address).write(data, callback);
+            }
+        });
+        assertTrue(completion.done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, completion.calls.get());
+        assertEquals(3, broadcast.sent());
+        for (Broadcast.Robot robot : broadcast.robots()) {
+            assertTrue(robot.queuedNanos >= 0);
+            assertTrue(robot.startedNanos >= 0);
+            assertTrue(robot.writtenNanos >= robot.startedNanos);
+            assertNull(robot.error);
+            assertEquals("up(3)_delay(2)", readLine(transports.get(robot.address).robotInput()));
+        }
+        assertTrue(broadcast.startSkewNanos() >= 0);
+        for (SerialSocket socket : sockets.values())
+            socket.disconnect();
+    }
+
+    @Test
+    public void reportsRobotsThatCannotTakeThePayload() {
+        Completion completion = new Completion();
+        Broadcast broadcast = new Broadcast(PROGRAM, Arrays.asList("AA", "BB", "CC"), completion);
+        broadcast.start(new Broadcast.Sender() {
+            @Override
+            public boolean send(String address, byte[] data, SerialWriter.Callback callback) throws IOException {
+                if ("BB".equals(address))
+                    throw new IOException("No socket connected");
+                if ("CC".equals(address))
+                    return false;
+                ((SerialWriter.StartCallback) callback).onStarted(System.nanoTime());
+                callback.onWritten(); // flushed before the fan-out finished
+                return true;
+            }
+        });
+        assertEquals(1, completion.calls.get()); // only once the fan-out is done
+        List<Broadcast.Robot> robots = broadcast.robots();
+        assertTrue(robots.get(0).sent());
+        assertTrue(robots.get(0).queuedNanos >= 0);
+        assertEquals("Not connected", robots.get(1).error);
+        assertEquals("write queue full", robots.get(2).error);
+        assertEquals(1, broadcast.sent());
+        assertEquals(0, broadcast.startSkewNanos());
+    }
+}
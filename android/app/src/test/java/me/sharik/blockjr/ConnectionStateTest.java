@@ -0,0 +1,46 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectionStateTest {
+
+    private final List<String> transitions = new ArrayList<>();
+    private final ConnectionState state = new ConnectionState(new ConnectionState.Listener() {
+        @Override
+        public void onStateChanged(ConnectionState.Snapshot previous, ConnectionState.Snapshot current) {
+            transitions.add(previous.state.jsName() + ">" + current.state.jsName() + "@" + current.address);
+        }
+    });
+
+    @Test
+    public void reportsTransitionsOnce() {
+        assertTrue(state.is(ConnectionState.State.IDLE));
+        assertNull(state.get().address);
+        state.moveTo(ConnectionState.State.CONNECTING, "AA");
+        state.moveTo(ConnectionState.State.CONNECTED, "AA");
+        state.moveTo(ConnectionState.State.CONNECTED, "AA"); // no change, no event
+        state.moveTo(ConnectionState.State.RECONNECTING, null); // keeps the address
+        state.moveTo(ConnectionState.State.CLOSED, null);
+        assertEquals("[idle>connecting@AA, connecting>connected@AA, connected>reconnecting@AA, reconnecting>closed@AA]",
+                transitions.toString());
+        assertEquals("AA", state.get().address);
+    }
+
+    @Test
+    public void moveFromIgnoresSupersededAttempts() {
+        state.moveTo(ConnectionState.State.CONNECTING, "AA");
+        state.moveTo(ConnectionState.State.CONNECTED, "AA");
+        // a late connect error of an earlier attempt must not close the live link
+        assertFalse(state.moveFrom(ConnectionState.State.CONNECTING, ConnectionState.State.CLOSED));
+        assertTrue(state.is(ConnectionState.State.CONNECTED));
+        state.moveTo(ConnectionState.State.CONNECTING, "BB");
+        assertTrue(state.moveFrom(ConnectionState.State.CONNECTING, ConnectionState.State.CLOSED));
+        assertEquals("BB", state.get().address);
+        assertEquals(4, transitions.size());
+    }
+}
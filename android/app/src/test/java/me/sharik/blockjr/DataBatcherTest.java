@@ -0,0 +1,124 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DataBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Downstream downstream = new Downstream();
+    private final DataBatcher batcher = new DataBatcher(downstream, scheduler);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class Downstream implements SerialListener {
+        final CountDownLatch firstBatch = new CountDownLatch(1);
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public void onSerialConnect() {}
+
+        @Override
+        public void onSerialConnectError(Exception e) {}
+
+        @Override
+        public void onSerialRead(byte[] data) {
+            fail("the batcher only hands on batches");
+        }
+
+        @Override
+        public synchronized void onSerialRead(ArrayDeque<byte[]> datas) {
+            batchSizes.add(datas.size());
+            for (byte[] data : datas)
+                received.write(data, 0, data.length);
+            firstBatch.countDown();
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {}
+
+        synchronized List<Integer> batchSizes() {
+            return new ArrayList<>(batchSizes);
+        }
+
+        synchronized String text() {
+            return new String(received.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    public void forwardsEveryChunkWhenDisabled() {
+        assertFalse(batcher.isEnabled());
+        batcher.onSerialRead(ascii("ab"));
+        batcher.onSerialRead(ascii("c"));
+        assertEquals("[1, 1]", downstream.batchSizes().toString());
+        assertEquals(2, batcher.getFlushes(DataBatcher.FlushReason.IMMEDIATE));
+    }
+
+    @Test
+    public void flushesOnceMaxBytesArePending() {
+        batcher.configure(10, 10_000);
+        batcher.onSerialRead(ascii("abcd"));
+        batcher.onSerialRead(ascii("efgh"));
+        assertTrue(downstream.batchSizes().isEmpty());
+        batcher.onSerialRead(ascii("ijkl"));
+        assertEquals("[3]", downstream.batchSizes().toString());
+        assertEquals("abcdefghijkl", downstream.text());
+        assertEquals(1, batcher.getFlushes(DataBatcher.FlushReason.SIZE));
+        assertEquals(12, batcher.getLargestBatch());
+    }
+
+    @Test
+    public void flushesAfterMaxDelay() throws InterruptedException {
+        batcher.configure(1000, 20);
+        long start = System.nanoTime();
+        batcher.onSerialRead(ascii("a"));
+        batcher.onSerialRead(ascii("b"));
+        assertTrue(downstream.firstBatch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15));
+        assertEquals("[2]", downstream.batchSizes().toString());
+        assertEquals(1, batcher.getFlushes(DataBatcher.FlushReason.DEADLINE));
+    }
+
+    @Test
+    public void disablingDeliversPendingChunksFirst() {
+        batcher.configure(1000, 10_000);
+        batcher.onSerialRead(ascii("a"));
+        batcher.onSerialRead(ascii("b"));
+        batcher.configure(0, 0);
+        batcher.onSerialRead(ascii("c"));
+        assertEquals("abc", downstream.text());
+        assertEquals("[2, 1]", downstream.batchSizes().toString());
+    }
+
+    @Test
+    public void closeFlushesTail() {
+        batcher.configure(1000, 10_000);
+        batcher.onSerialRead(ascii("tail"));
+        batcher.flush(DataBatcher.FlushReason.CLOSE);
+        assertEquals("tail", downstream.text());
+        assertEquals(1, batcher.getFlushes(DataBatcher.FlushReason.CLOSE));
+        batcher.flush(DataBatcher.FlushReason.CLOSE); // nothing pending, no empty batch
+        assertEquals(1, downstream.batchSizes().size());
+    }
+}
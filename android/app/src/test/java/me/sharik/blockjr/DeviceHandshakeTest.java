@@ -0,0 +1,67 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DeviceHandshakeTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TimeoutWheel wheel = new TimeoutWheel(scheduler, 5, 64);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void parsesSplitReply() {
+        final int[] info = new int[4];
+        DeviceHandshake h = new DeviceHandshake(new DeviceHandshake.Listener() {
+            @Override
+            public void onInfo(int major, int minor, boolean hasProgram, int programHash) {
+                info[0] = major;
+                info[1] = minor;
+                info[2] = hasProgram ? 1 : 0;
+                info[3] = programHash;
+            }
+
+            @Override
+            public void onTimeout() {
+                fail("timeout");
+            }
+        });
+        h.start(wheel, 5000);
+        byte[] stream = { 'o', 'k', '\n', (byte) DeviceHandshake.HELLO, 2, 7, 1, (byte) 0xde, (byte) 0xad, (byte) 0xbe, (byte) 0xef };
+        h.feed(stream, 0, 6);
+        assertFalse(h.isFinished());
+        h.feed(stream, 6, stream.length - 6);
+        assertTrue(h.isFinished());
+        assertArrayEquals(new int[] { 2, 7, 1, 0xdeadbeef }, info);
+    }
+
+    @Test
+    public void timesOutWithoutReply() throws Exception {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        DeviceHandshake h = new DeviceHandshake(new DeviceHandshake.Listener() {
+            @Override
+            public void onInfo(int major, int minor, boolean hasProgram, int programHash) {
+                fail("no reply was sent");
+            }
+
+            @Override
+            public void onTimeout() {
+                timedOut.countDown();
+            }
+        });
+        h.start(wheel, 20);
+        assertTrue(timedOut.await(1, TimeUnit.SECONDS));
+        h.feed(new byte[] { (byte) DeviceHandshake.HELLO, 1, 0, 0, 0, 0, 0, 0 }, 0, 8);
+    }
+}
@@ -0,0 +1,39 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class DiscoveryRegistryTest {
+
+    @Test
+    public void deduplicatesByAddress() {
+        DiscoveryRegistry registry = new DiscoveryRegistry();
+        assertTrue(registry.onFound("AA", null, -70, 1));
+        assertFalse(registry.onFound("AA", null, -60, 2));
+        assertTrue(registry.onFound("AA", "robot-1", DiscoveryRegistry.RSSI_UNKNOWN, 3)); // name resolved
+        assertFalse(registry.onFound("AA", "robot-1", -65, 4));
+        assertEquals(1, registry.size());
+        DiscoveryRegistry.Entry entry = registry.sorted().get(0);
+        assertEquals("robot-1", entry.name);
+        assertEquals(-65, entry.rssi);
+        assertEquals(4, entry.lastSeenMs);
+    }
+
+    @Test
+    public void sortsBySignal() {
+        DiscoveryRegistry registry = new DiscoveryRegistry();
+        registry.onFound("far", "a", -90, 1);
+        registry.onFound("unknown", "b", DiscoveryRegistry.RSSI_UNKNOWN, 5);
+        registry.onFound("near", "c", -40, 2);
+        registry.onFound("mid", "d", -60, 3);
+        registry.onFound("mid2", "e", -60, 4);
+        List<DiscoveryRegistry.Entry> sorted = registry.sorted();
+        String[] order = new String[sorted.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = sorted.get(i).address;
+        assertArrayEquals(new String[] { "near", "mid2", "mid", "far", "unknown" }, order);
+    }
+}
@@ -0,0 +1,78 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(3, LatencyHistogram.bucketOf(4));
+        assertEquals(10, LatencyHistogram.bucketOf(1023));
+        assertEquals(11, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.meanMicros());
+        assertEquals(0, h.percentileMicros(99));
+    }
+
+    @Test
+    public void recordsCountMeanAndMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(100);
+        h.record(300);
+        h.recordNanos(2_000_000); // 2 ms
+        h.record(-5); // clock went backwards: counted as 0
+        assertEquals(4, h.count());
+        assertEquals((100 + 300 + 2000) / 4, h.meanMicros());
+        assertEquals(2000, h.maxMicros());
+        assertEquals(1, h.bucketCount(0));
+        assertEquals(1, h.bucketCount(LatencyHistogram.bucketOf(2000)));
+    }
+
+    @Test
+    public void percentilesReportBucketUpperBound() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 90; i++)
+            h.record(100); // bucket 7, below 128 us
+        for (int i = 0; i < 9; i++)
+            h.record(1000); // bucket 10, below 1024 us
+        h.record(50_000);
+        assertEquals(128, h.percentileMicros(50));
+        assertEquals(128, h.percentileMicros(90));
+        assertEquals(1024, h.percentileMicros(99));
+        assertEquals(50_000, h.percentileMicros(100)); // capped at the max seen
+    }
+
+    @Test
+    public void lastBucketReportsMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        long huge = 1L << 40;
+        h.record(huge);
+        assertEquals(huge, h.percentileMicros(50));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(10);
+        h.record(20_000);
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.maxMicros());
+        assertEquals(0, h.meanMicros());
+        assertEquals(0, h.percentileMicros(99));
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++)
+            assertEquals(0, h.bucketCount(i));
+    }
+}
@@ -0,0 +1,91 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LinkRegistryTest {
+
+    private static final int MAX = 7;
+
+    private static class FakeLink implements LinkRegistry.Link {
+        final String address;
+        boolean active;
+
+        FakeLink(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    private final List<String> created = new ArrayList<>();
+    private final LinkRegistry<FakeLink> registry = new LinkRegistry<>(MAX, new LinkRegistry.Factory<FakeLink>() {
+        @Override
+        public FakeLink create(String address) {
+            created.add(address);
+            return new FakeLink(address);
+        }
+    });
+
+    private static String address(int i) {
+        return "00:11:22:33:44:0" + i;
+    }
+
+    @Test
+    public void keepsOneLinkPerAddress() {
+        FakeLink a = registry.obtain("AA");
+        assertSame(a, registry.obtain("AA"));
+        FakeLink b = registry.obtain("BB");
+        assertNotSame(a, b);
+        assertSame(b, registry.get("BB"));
+        assertNull(registry.get("CC"));
+        assertEquals(2, registry.all().size());
+        assertEquals("[AA, BB]", created.toString());
+    }
+
+    @Test
+    public void reusesLinkAfterDisconnect() {
+        FakeLink link = registry.obtain("AA");
+        link.active = true;
+        link.active = false; // disconnected: the link stays with its stats
+        assertSame(link, registry.obtain("AA"));
+        assertEquals(1, created.size());
+    }
+
+    @Test
+    public void findsPrimaryWithoutAddress() {
+        assertNull(registry.find(null));
+        FakeLink a = registry.obtain("AA");
+        FakeLink b = registry.obtain("BB");
+        registry.setPrimary("AA");
+        assertSame(a, registry.find(null));
+        assertSame(b, registry.find("BB"));
+        assertNull(registry.find("CC"));
+        registry.setPrimary("BB"); // the robot connected last
+        assertSame(b, registry.find(null));
+        assertEquals("BB", registry.primary());
+    }
+
+    @Test
+    public void limitsActiveLinks() {
+        for (int i = 0; i < MAX; i++) {
+            assertTrue(registry.hasSlotFor(address(i)));
+            registry.obtain(address(i)).active = true;
+        }
+        assertEquals(MAX, registry.activeExcept("none"));
+        assertFalse(registry.hasSlotFor(address(MAX)));
+        assertTrue(registry.hasSlotFor(address(0))); // reconnecting an active robot keeps its slot
+
+        registry.get(address(3)).active = false;
+        assertTrue(registry.hasSlotFor(address(MAX)));
+        registry.obtain(address(8)); // inactive links, e.g. a capture set up before connecting, take no slot
+        assertTrue(registry.hasSlotFor(address(MAX)));
+    }
+}
@@ -0,0 +1,45 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LinkStatsTest {
+
+    @Test
+    public void onReadCountsBytesAndChunkSizes() {
+        LinkStats stats = new LinkStats();
+        stats.onRead(1);
+        stats.onRead(20);
+        stats.onRead(20);
+        assertEquals(41, stats.bytesRead.sum());
+        assertEquals(3, stats.readChunks.sum());
+        assertEquals(3, stats.readChunkBytes.count());
+        assertEquals(2, stats.readChunkBytes.bucketCount(LatencyHistogram.bucketOf(20)));
+        assertEquals(20, stats.readChunkBytes.maxMicros()); // bytes, despite the name
+    }
+
+    @Test
+    public void resetClearsAllCounters() {
+        LinkStats stats = new LinkStats();
+        stats.onRead(64);
+        stats.dataEvents.increment();
+        stats.connects.increment();
+        stats.connectFailures.increment();
+        stats.linkLosses.increment();
+        stats.reconnects.increment();
+        stats.connectTime.record(1500);
+        stats.dispatchTime.record(40);
+        stats.reset();
+        assertEquals(0, stats.bytesRead.sum());
+        assertEquals(0, stats.readChunks.sum());
+        assertEquals(0, stats.dataEvents.sum());
+        assertEquals(0, stats.connects.sum());
+        assertEquals(0, stats.connectFailures.sum());
+        assertEquals(0, stats.linkLosses.sum());
+        assertEquals(0, stats.reconnects.sum());
+        assertEquals(0, stats.connectTime.count());
+        assertEquals(0, stats.dispatchTime.count());
+        assertEquals(0, stats.readChunkBytes.count());
+    }
+}
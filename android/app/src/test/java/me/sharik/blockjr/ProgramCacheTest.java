@@ -0,0 +1,57 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ProgramCacheTest {
+
+    private static JSONArray program(int delay) {
+        JSONArray blocks = new JSONArray();
+        blocks.put(new JSONObject().put("type", "up").put("id", "a" + delay));
+        blocks.put(new JSONObject().put("type", "delay").put("value", delay));
+        return blocks;
+    }
+
+    @Test
+    public void lruByBlocks() {
+        ProgramCache cache = new ProgramCache(2);
+        BlockProgramCompiler.Program p1 = cache.compile(program(1));
+        assertSame(p1, cache.compile(program(1)));
+        cache.compile(program(2));
+        cache.compile(program(1)); // touch 1, so 2 is evicted next
+        cache.compile(program(3));
+        assertEquals(2, cache.size());
+        assertSame(p1, cache.compile(program(1)));
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void valueTypeIsPartOfKey() {
+        ProgramCache cache = new ProgramCache(4);
+        JSONArray text = new JSONArray().put(new JSONObject().put("type", "delay").put("value", "x"));
+        JSONArray missing = new JSONArray().put(new JSONObject().put("type", "delay"));
+        assertEquals(cache.compile(text).hash, cache.compile(missing).hash); // both delay(1)
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void heldHashesPerDevice() {
+        ProgramCache cache = new ProgramCache(4);
+        int hash = cache.compile(program(1)).hash;
+        assertFalse(cache.isHeld("AA", hash));
+        cache.markHeld("AA", hash);
+        assertTrue(cache.isHeld("AA", hash));
+        assertFalse(cache.isHeld("BB", hash));
+        for (int i = 0; i < ProgramCache.MAX_HELD_PER_DEVICE; i++)
+            cache.markHeld("AA", i);
+        assertFalse(cache.isHeld("AA", hash));
+        cache.forget("AA");
+        assertFalse(cache.isHeld("AA", 0));
+        byte[] run = BlockProgramCompiler.runCached(0x01020304);
+        assertArrayEquals(new byte[] { (byte) BlockProgramCompiler.RUN_CACHED, 1, 2, 3, 4 }, run);
+    }
+}
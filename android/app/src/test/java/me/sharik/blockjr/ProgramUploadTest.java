@@ -0,0 +1,131 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProgramUploadTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TimeoutWheel wheel = new TimeoutWheel(scheduler, 5, 64);
+    private final List<byte[]> sent = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger retransmits = new AtomicInteger(-1);
+
+    private final ProgramUpload.Link link = new ProgramUpload.Link() {
+        @Override
+        public boolean send(byte[] packet) {
+            synchronized (sent) {
+                sent.add(packet);
+            }
+            return true;
+        }
+    };
+
+    private final ProgramUpload.Listener listener = new ProgramUpload.Listener() {
+        @Override
+        public void onProgress(int acked, int total) {}
+
+        @Override
+        public void onComplete(int chunks, int r) {
+            retransmits.set(r);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(String message) {
+            done.countDown();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private int sentCount() {
+        synchronized (sent) {
+            return sent.size();
+        }
+    }
+
+    private static void ack(ProgramUpload upload, int seq) {
+        upload.feed(new byte[] { (byte) ProgramUpload.ACK, (byte) seq, (byte) (ProgramUpload.ACK ^ seq) }, 0, 3);
+    }
+
+    @Test
+    public void slidingWindow() throws Exception {
+        byte[] program = new byte[100];
+        ProgramUpload upload = new ProgramUpload(program, 10, 3, 5000, 0, wheel, link, listener);
+        assertEquals(10, upload.chunks());
+        upload.start();
+        assertEquals(3, sentCount());
+        ack(upload, 1); // cumulative: chunks 0 and 1
+        assertEquals(5, sentCount());
+        byte[] chunk = sent.get(4);
+        assertEquals(ProgramUpload.CHUNK, chunk[0] & 0xff);
+        assertEquals(4, chunk[1]);
+        assertEquals(10, chunk[2]);
+        ack(upload, 0); // stale
+        assertEquals(5, sentCount());
+        for (int seq = 2; seq < 10; seq++)
+            ack(upload, seq);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(0, retransmits.get());
+        assertEquals(ProgramUpload.CHUNK_LAST, sent.get(9)[0] & 0xff);
+    }
+
+    @Test
+    public void resendsWindowAfterTimeout() throws Exception {
+        ProgramUpload upload = new ProgramUpload(new byte[20], 10, 2, 30, 3, wheel, link, listener);
+        upload.start();
+        assertEquals(2, sentCount());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sentCount() < 4 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(0, sent.get(2)[1]); // go back to the oldest unacknowledged chunk
+        ack(upload, 1);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(retransmits.get() >= 2);
+    }
+
+    @Test
+    public void strayAckBytesAcknowledgeNothing() throws Exception {
+        final AtomicInteger progress = new AtomicInteger();
+        ProgramUpload upload = new ProgramUpload(new byte[80], 10, 4, 5000, 0, wheel, link, new ProgramUpload.Listener() {
+            @Override
+            public void onProgress(int acked, int total) {
+                progress.incrementAndGet();
+            }
+
+            @Override
+            public void onComplete(int chunks, int retransmits) {
+                fail("completed without acknowledgements");
+            }
+
+            @Override
+            public void onFailed(String message) {}
+        });
+        upload.start();
+        assertEquals(4, sentCount());
+        // "¥" in UTF-8 is C2 A5, then telemetry that happens to hold 0xA5 and a plausible sequence number
+        byte[] noise = { (byte) 0xc2, (byte) 0xa5, '3', '\n', (byte) 0xa5, 3, 0, (byte) 0xa5, (byte) 0xa5, 1, 7 };
+        upload.feed(noise, 0, noise.length);
+        assertEquals(0, progress.get());
+        assertEquals(4, sentCount()); // nothing acknowledged, so no room for more chunks
+
+        // a real ACK right after an unfinished stray one is still recognized
+        upload.feed(new byte[] { (byte) 0xa5, (byte) 0xa5, 1, (byte) (0xa5 ^ 1) }, 0, 4);
+        assertEquals(1, progress.get());
+        assertEquals(6, sentCount());
+    }
+}
@@ -0,0 +1,136 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReconnectorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void backoffDoublesWithinJitterAndCaps() {
+        Reconnector.Policy policy = new Reconnector.Policy();
+        policy.baseDelayMs = 100;
+        policy.maxDelayMs = 1000;
+        policy.jitter = 0.5;
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            long first = Reconnector.backoffMs(policy, 1, random);
+            long third = Reconnector.backoffMs(policy, 3, random);
+            long capped = Reconnector.backoffMs(policy, 40, random);
+            assertTrue(first >= 50 && first <= 100);
+            assertTrue(third >= 200 && third <= 400);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+        policy.jitter = 0;
+        assertEquals(800, Reconnector.backoffMs(policy, 4, random));
+    }
+
+    @Test
+    public void redialsAndFlushesBufferedWrites() throws Exception {
+        final LinkedBlockingQueue<String> dials = new LinkedBlockingQueue<>();
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final AtomicInteger flushed = new AtomicInteger(-1);
+        final AtomicInteger attempts = new AtomicInteger();
+        Reconnector.Policy policy = new Reconnector.Policy();
+        policy.enabled = true;
+        policy.baseDelayMs = 1;
+        policy.maxDelayMs = 4;
+        Reconnector reconnector = new Reconnector(scheduler, policy, new Reconnector.Dialer() {
+            @Override
+            public void dial(String address) {
+                dials.add(address);
+            }
+        }, new Reconnector.Listener() {
+            @Override
+            public void onReconnecting(String address, int attempt, long delayMs) {}
+
+            @Override
+            public void onReconnected(String address, int n, List<Reconnector.PendingWrite> buffered) {
+                attempts.set(n);
+                flushed.set(buffered.size());
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onGaveUp(String address, int n) {
+                fail("gave up");
+            }
+        });
+        assertFalse(reconnector.onLinkLost()); // never connected
+        reconnector.onConnected("AA");
+        assertTrue(reconnector.onLinkLost());
+        assertTrue(reconnector.buffer(new byte[] { 1 }, null, 1));
+        assertFalse(reconnector.buffer(new byte[] { 2 }, null, 1));
+        assertEquals("AA", dials.poll(1, TimeUnit.SECONDS));
+        assertTrue(reconnector.onConnectFailed());
+        assertEquals("AA", dials.poll(1, TimeUnit.SECONDS));
+        reconnector.onConnected("AA");
+        assertTrue(reconnected.await(1, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, flushed.get());
+        assertFalse(reconnector.isReconnecting());
+    }
+
+    @Test
+    public void givesUpAndFailsBufferedWrites() throws Exception {
+        final CountDownLatch gaveUp = new CountDownLatch(1);
+        final AtomicInteger failedWrites = new AtomicInteger();
+        Reconnector.Policy policy = new Reconnector.Policy();
+        policy.enabled = true;
+        policy.maxAttempts = 2;
+        policy.baseDelayMs = 50; // leaves time to buffer before the first redial
+        final Reconnector[] holder = new Reconnector[1];
+        holder[0] = new Reconnector(scheduler, policy, new Reconnector.Dialer() {
+            @Override
+            public void dial(String address) {
+                holder[0].onConnectFailed();
+            }
+        }, new Reconnector.Listener() {
+            @Override
+            public void onReconnecting(String address, int attempt, long delayMs) {}
+
+            @Override
+            public void onReconnected(String address, int attempts, List<Reconnector.PendingWrite> buffered) {
+                fail("reconnected");
+            }
+
+            @Override
+            public void onGaveUp(String address, int attempts) {
+                assertEquals(2, attempts);
+                gaveUp.countDown();
+            }
+        });
+        holder[0].onConnected("AA");
+        holder[0].onLinkLost();
+        holder[0].buffer(new byte[] { 1 }, new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {}
+
+            @Override
+            public void onFailed(IOException e) {
+                failedWrites.incrementAndGet();
+            }
+        }, 8);
+        assertTrue(gaveUp.await(1, TimeUnit.SECONDS));
+        assertEquals(1, failedWrites.get());
+        assertFalse(holder[0].isReconnecting());
+    }
+}
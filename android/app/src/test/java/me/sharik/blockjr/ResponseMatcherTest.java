@@ -0,0 +1,129 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ResponseMatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ResponseMatcher matcher = new ResponseMatcher(new TimeoutWheel(scheduler, 10, 64));
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private void feed(String s) {
+        byte[] data = s.getBytes(StandardCharsets.US_ASCII);
+        matcher.feed(data, 0, data.length);
+    }
+
+    private static class Reply implements ResponseMatcher.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String response;
+        volatile String error;
+
+        @Override
+        public void onResponse(byte[] data, int off, int len) {
+            response = new String(data, off, len, StandardCharsets.US_ASCII);
+            done.countDown();
+        }
+
+        @Override
+        public void onError(String message) {
+            error = message;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void findsTerminatorSplitAcrossChunks() {
+        Reply reply = new Reply();
+        assertNotNull(matcher.add("\r\n", 10_000, reply));
+        feed("ver 1.");
+        feed("2\r");
+        assertNull(reply.response);
+        feed("\nnext");
+        assertEquals("ver 1.2", reply.response);
+        assertEquals(0, matcher.pending());
+    }
+
+    @Test
+    public void matchesPipelinedRequestsInOrder() {
+        Reply first = new Reply();
+        Reply second = new Reply();
+        Reply third = new Reply();
+        matcher.add("\n", 10_000, first);
+        matcher.add("\n", 10_000, second);
+        matcher.add(";", 10_000, third);
+        feed("ok 1\nok");
+        assertEquals("ok 1", first.response);
+        assertNull(second.response);
+        feed(" 2\nhash;");
+        assertEquals("ok 2", second.response);
+        assertEquals("hash", third.response);
+    }
+
+    @Test
+    public void ignoresBytesWhileNothingIsPending() {
+        feed("noise\n");
+        Reply reply = new Reply();
+        matcher.add("\n", 10_000, reply);
+        feed("answer\n");
+        assertEquals("answer", reply.response);
+    }
+
+    @Test
+    public void cancelledRequestIsSkipped() {
+        Reply cancelled = new Reply();
+        Reply next = new Reply();
+        ResponseMatcher.Request request = matcher.add("\n", 10_000, cancelled);
+        matcher.add("\n", 10_000, next);
+        matcher.cancel(request);
+        assertEquals(1, matcher.pending());
+        feed("only\n");
+        assertEquals("only", next.response);
+        assertNull(cancelled.response);
+        assertNull(cancelled.error);
+    }
+
+    @Test
+    public void limitsOutstandingRequests() {
+        for (int i = 0; i < ResponseMatcher.MAX_PENDING; i++)
+            assertNotNull(matcher.add("\n", 10_000, new Reply()));
+        assertNull(matcher.add("\n", 10_000, new Reply()));
+    }
+
+    @Test
+    public void timesOutAndLetsNextRequestMatch() throws InterruptedException {
+        Reply slow = new Reply();
+        Reply next = new Reply();
+        matcher.add("\n", 20, slow);
+        matcher.add("\n", 10_000, next);
+        assertTrue(slow.done.await(2, TimeUnit.SECONDS));
+        assertEquals("timeout", slow.error);
+        feed("late\n");
+        assertEquals("late", next.response);
+    }
+
+    @Test
+    public void failAllReportsEveryRequest() {
+        Reply first = new Reply();
+        Reply second = new Reply();
+        matcher.add("\n", 10_000, first);
+        matcher.add("\n", 10_000, second);
+        feed("partial");
+        matcher.failAll("Not connected");
+        assertEquals("Not connected", first.error);
+        assertEquals("Not connected", second.error);
+        assertEquals(0, matcher.pending());
+    }
+}
@@ -0,0 +1,191 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class RfcommTransportTest {
+
+    private static final RfcommTransport.Strategy[] ALL = RfcommTransport.DEFAULT_STRATEGIES;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    enum Behaviour {
+        /** connect fails right away, e.g. SDP lookup failed */
+        REFUSE,
+        /** connect blocks until the socket is closed, then fails like BluetoothSocket */
+        HANG,
+        /** connect blocks until the socket is closed, then returns: completed as the deadline fired */
+        LATE,
+        CONNECT
+    }
+
+    private static class FakeSocket implements RfcommTransport.Socket {
+        final Behaviour behaviour;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        FakeSocket(Behaviour behaviour) {
+            this.behaviour = behaviour;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            switch (behaviour) {
+                case REFUSE:
+                    throw new IOException("read failed, socket might closed");
+                case HANG:
+                case LATE:
+                    try {
+                        closed.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (behaviour == Behaviour.HANG)
+                        throw new IOException("socket closed");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static class FakeDevice implements RfcommTransport.Device {
+        final EnumMap<RfcommTransport.Strategy, Behaviour> behaviours = new EnumMap<>(RfcommTransport.Strategy.class);
+        final List<RfcommTransport.Strategy> tried = new ArrayList<>();
+        final List<FakeSocket> sockets = new ArrayList<>();
+
+        FakeDevice with(RfcommTransport.Strategy strategy, Behaviour behaviour) {
+            behaviours.put(strategy, behaviour);
+            return this;
+        }
+
+        @Override
+        public String getName() {
+            return null;
+        }
+
+        @Override
+        public String getAddress() {
+            return "00:11:22:33:44:55";
+        }
+
+        @Override
+        public synchronized RfcommTransport.Socket createSocket(RfcommTransport.Strategy strategy) throws IOException {
+            tried.add(strategy);
+            Behaviour behaviour = behaviours.get(strategy);
+            if (behaviour == null)
+                throw new IOException(strategy + " not available");
+            FakeSocket socket = new FakeSocket(behaviour);
+            sockets.add(socket);
+            return socket;
+        }
+    }
+
+    @Test
+    public void fallsBackToNextStrategy() throws IOException {
+        FakeDevice device = new FakeDevice()
+                .with(RfcommTransport.Strategy.SECURE, Behaviour.REFUSE)
+                .with(RfcommTransport.Strategy.CHANNEL, Behaviour.CONNECT); // INSECURE cannot be created
+        RfcommTransport transport = new RfcommTransport(device, ALL, 1000, timer);
+        transport.connect();
+        assertEquals(RfcommTransport.Strategy.CHANNEL, transport.getConnectedStrategy());
+        assertEquals(3, device.tried.size());
+        assertEquals(0, device.sockets.get(0).closed.getCount()); // failed socket closed
+        assertEquals(1, device.sockets.get(1).closed.getCount()); // connected socket left open
+        assertEquals("00:11:22:33:44:55", transport.getName());
+    }
+
+    @Test
+    public void timesOutHangingStrategy() throws IOException {
+        FakeDevice device = new FakeDevice()
+                .with(RfcommTransport.Strategy.SECURE, Behaviour.HANG)
+                .with(RfcommTransport.Strategy.INSECURE, Behaviour.CONNECT);
+        RfcommTransport transport = new RfcommTransport(device, ALL, 30, timer);
+        long start = System.nanoTime();
+        transport.connect();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(RfcommTransport.Strategy.INSECURE, transport.getConnectedStrategy());
+    }
+
+    @Test
+    public void connectCompletingAtDeadlineCountsAsTimedOut() throws IOException {
+        FakeDevice device = new FakeDevice()
+                .with(RfcommTransport.Strategy.SECURE, Behaviour.LATE)
+                .with(RfcommTransport.Strategy.INSECURE, Behaviour.CONNECT);
+        RfcommTransport transport = new RfcommTransport(device, ALL, 30, timer);
+        transport.connect();
+        // the SECURE socket was closed by the deadline, it must not be taken as the link
+        assertEquals(RfcommTransport.Strategy.INSECURE, transport.getConnectedStrategy());
+    }
+
+    @Test
+    public void reportsTimeoutOfLastStrategy() {
+        FakeDevice device = new FakeDevice()
+                .with(RfcommTransport.Strategy.SECURE, Behaviour.REFUSE)
+                .with(RfcommTransport.Strategy.INSECURE, Behaviour.LATE);
+        RfcommTransport transport = new RfcommTransport(device,
+                new RfcommTransport.Strategy[] { RfcommTransport.Strategy.SECURE, RfcommTransport.Strategy.INSECURE }, 20, timer);
+        try {
+            transport.connect();
+            fail("connected without a working strategy");
+        } catch (IOException e) {
+            assertEquals("INSECURE connect timed out after 20 ms", e.getMessage());
+        }
+        assertNull(transport.getConnectedStrategy());
+    }
+
+    @Test
+    public void closeStopsConnect() throws Exception {
+        final FakeDevice device = new FakeDevice().with(RfcommTransport.Strategy.SECURE, Behaviour.HANG)
+                .with(RfcommTransport.Strategy.INSECURE, Behaviour.CONNECT);
+        final RfcommTransport transport = new RfcommTransport(device, ALL, 10_000, timer);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transport.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        try {
+            transport.connect();
+            fail("connected after close");
+        } catch (IOException e) {
+            assertEquals("closed while connecting", e.getMessage());
+        }
+        assertEquals(1, device.tried.size());
+    }
+}
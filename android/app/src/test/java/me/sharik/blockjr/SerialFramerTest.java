@@ -0,0 +1,77 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SerialFramerTest {
+
+    private static List<String> feedSplit(SerialFramer framer, byte[] stream) {
+        final List<String> frames = new ArrayList<>();
+        SerialFramer.FrameListener listener = new SerialFramer.FrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int off, int len) {
+                frames.add(new String(frame, off, len, StandardCharsets.ISO_8859_1));
+            }
+        };
+        // feed byte by byte to exercise frames split across reads
+        for (int i = 0; i < stream.length; i++)
+            framer.feed(stream, i, 1, listener);
+        return frames;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            out[i] = (byte) values[i];
+        return out;
+    }
+
+    @Test
+    public void lineFramer() {
+        List<String> frames = feedSplit(new LineFramer((byte) '\n', 64), "ok\r\n\nbusy\nrest".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(Arrays.asList("ok", "busy"), frames);
+    }
+
+    @Test
+    public void lengthPrefixFramer() {
+        List<String> frames = feedSplit(new LengthPrefixFramer(2, 64), bytes(0, 2, 'h', 'i', 0, 0, 0, 1, 'x'));
+        assertEquals(Arrays.asList("hi", "x"), frames);
+    }
+
+    @Test
+    public void cobsFramer() {
+        // 11 22 00 33 encodes to 03 11 22 02 33
+        List<String> frames = feedSplit(new CobsFramer(64), bytes(3, 0x11, 0x22, 2, 0x33, 0, 1, 1, 0));
+        assertEquals(2, frames.size());
+        assertEquals(new String(bytes(0x11, 0x22, 0, 0x33), StandardCharsets.ISO_8859_1), frames.get(0));
+        assertEquals(new String(bytes(0), StandardCharsets.ISO_8859_1), frames.get(1));
+    }
+
+    @Test
+    public void slipFramer() {
+        List<String> frames = feedSplit(new SlipFramer(64), bytes(0xc0, 'a', 0xdb, 0xdc, 0xdb, 0xdd, 0xc0));
+        assertEquals(Arrays.asList(new String(bytes('a', 0xc0, 0xdb), StandardCharsets.ISO_8859_1)), frames);
+    }
+
+    @Test
+    public void oversizedFramesAreDropped() {
+        List<String> frames = feedSplit(new LineFramer((byte) '\n', 4), "toolong\nok\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(Arrays.asList("ok"), frames);
+    }
+
+    @Test
+    public void utf8SequenceSplitAcrossChunks() {
+        byte[] data = "grün→".getBytes(StandardCharsets.UTF_8);
+        Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < data.length; i++)
+            out.append(decoder.decode(data, i, 1));
+        assertEquals("grün→", out.toString());
+    }
+}
@@ -0,0 +1,62 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SerialReadPumpTest {
+
+    @Test
+    public void ringWrapsAround() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(6);
+        assertEquals(8, ring.capacity());
+        byte[] out = new byte[8];
+        assertEquals(6, ring.readFrom(new java.io.ByteArrayInputStream("abcdef".getBytes())));
+        assertEquals(4, ring.drainTo(out, 0, 4));
+        assertEquals(2, ring.readFrom(new java.io.ByteArrayInputStream("ghij".getBytes())));
+        assertEquals(2, ring.readFrom(new java.io.ByteArrayInputStream("ij".getBytes())));
+        assertEquals(4, ring.drainTo(out, 0, 4));
+        assertEquals("efgh", new String(out, 0, 4, StandardCharsets.US_ASCII));
+        assertEquals(2, ring.drainTo(out, 0, 8));
+        assertEquals("ij", new String(out, 0, 2, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void pumpDeliversAllBytesInOrder() throws Exception {
+        PipedOutputStream robot = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(robot, 4096);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch ended = new CountDownLatch(1);
+        SerialReadPump pump = new SerialReadPump(in, 64, new SerialReadPump.Sink() {
+            @Override
+            public void onData(byte[] data, int off, int len) {
+                received.write(data, off, len);
+            }
+
+            @Override
+            public void onEnd(IOException e) {
+                ended.countDown();
+            }
+        });
+        pump.start(java.util.concurrent.Executors.newCachedThreadPool());
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String line = "sensor " + i + "\n";
+            expected.append(line);
+            robot.write(line.getBytes(StandardCharsets.US_ASCII));
+        }
+        robot.close();
+
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertEquals(expected.toString(), new String(received.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
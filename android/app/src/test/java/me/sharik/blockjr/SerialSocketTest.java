@@ -0,0 +1,123 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SerialSocketTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private static class RecordingListener implements SerialListener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch ioError = new CountDownLatch(1);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public void onSerialConnect() {
+            connected.countDown();
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+        }
+
+        @Override
+        public synchronized void onSerialRead(byte[] data) {
+            received.write(data, 0, data.length);
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            for (byte[] data : datas)
+                onSerialRead(data);
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            ioError.countDown();
+        }
+
+        synchronized String text() {
+            return new String(received.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writesAndReadsOverLoopback() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        SerialSocket socket = new SerialSocket(transport, executor, new SerialWriter.Settings(), new SerialWriter.Stats());
+        RecordingListener listener = new RecordingListener();
+        socket.connect(listener);
+        assertTrue(listener.connected.await(2, TimeUnit.SECONDS));
+
+        final CountDownLatch written = new CountDownLatch(1);
+        assertTrue(socket.write("up(3)\n".getBytes(StandardCharsets.UTF_8), new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {
+                written.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+            }
+        }));
+        assertTrue(written.await(2, TimeUnit.SECONDS));
+        byte[] command = new byte[6];
+        int n = 0;
+        while (n < command.length)
+            n += transport.robotInput().read(command, n, command.length - n);
+        assertEquals("up(3)\n", new String(command, StandardCharsets.UTF_8));
+
+        transport.robotOutput().write("ok\n".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!listener.text().equals("ok\n") && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals("ok\n", listener.text());
+
+        transport.robotOutput().close(); // robot goes away
+        assertTrue(listener.ioError.await(2, TimeUnit.SECONDS));
+        assertFalse(socket.isConnected());
+    }
+
+    @Test
+    public void failingConnectListenerDoesNotLeaveLinkHalfOpen() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        SerialSocket socket = new SerialSocket(transport, executor, new SerialWriter.Settings(), new SerialWriter.Stats());
+        final CountDownLatch connectError = new CountDownLatch(1);
+        socket.connect(new RecordingListener() {
+            @Override
+            public void onSerialConnect() {
+                throw new IllegalStateException("startForeground not allowed");
+            }
+
+            @Override
+            public void onSerialConnectError(Exception e) {
+                connectError.countDown();
+            }
+        });
+        assertTrue(connectError.await(2, TimeUnit.SECONDS));
+        assertFalse(socket.isConnected());
+        try {
+            socket.write("up(3)\n".getBytes(StandardCharsets.UTF_8), null);
+            fail("wrote to a closed link");
+        } catch (IOException expected) {
+        }
+        assertEquals(-1, transport.robotInput().read()); // transport closed
+    }
+}
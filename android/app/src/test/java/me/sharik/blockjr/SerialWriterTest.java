@@ -0,0 +1,232 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SerialWriterTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String read(InputStream in, int len) throws IOException {
+        byte[] buf = new byte[len];
+        int n = 0;
+        while (n < len) {
+            int r = in.read(buf, n, len - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        return new String(buf, 0, n, StandardCharsets.US_ASCII);
+    }
+
+    private static class Outcome implements SerialWriter.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean written;
+        volatile IOException error;
+
+        @Override
+        public void onWritten() {
+            written = true;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(IOException e) {
+            error = e;
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(2, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Holds every write until released, ignoring interrupts like a socket stuck in the stack.
+     */
+    private static class StalledStream extends OutputStream {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writing.countDown();
+            boolean released = false;
+            while (!released) {
+                try {
+                    released = release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // keep blocking
+                }
+            }
+            synchronized (written) {
+                written.write(b, off, len);
+            }
+        }
+    }
+
+    @Test
+    public void coalescesCommandsWithinWindow() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.coalesceWindowMs = 50;
+        SerialWriter.Stats stats = new SerialWriter.Stats();
+        SerialWriter writer = new SerialWriter(transport.getOutputStream(), settings, stats);
+        Outcome[] outcomes = { new Outcome(), new Outcome(), new Outcome() };
+        assertTrue(writer.submit(ascii("up(1)\n"), outcomes[0]));
+        assertTrue(writer.submit(ascii("up(2)\n"), outcomes[1]));
+        assertTrue(writer.submit(ascii("up(3)\n"), outcomes[2]));
+        writer.start(executor);
+        for (Outcome outcome : outcomes) {
+            assertTrue(outcome.await());
+            assertTrue(outcome.written);
+        }
+        assertEquals("up(1)\nup(2)\nup(3)\n", read(transport.robotInput(), 18));
+        assertEquals(1, stats.packets.get()); // one write and flush for the burst
+        assertEquals(3, stats.written.get());
+        assertEquals(18, stats.bytes.get());
+        writer.stop();
+    }
+
+    @Test
+    public void splitsBatchAtMaxBytesAndCarriesTheRest() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.coalesceWindowMs = 50;
+        settings.coalesceMaxBytes = 4;
+        SerialWriter.Stats stats = new SerialWriter.Stats();
+        SerialWriter writer = new SerialWriter(transport.getOutputStream(), settings, stats);
+        Outcome last = new Outcome();
+        assertTrue(writer.submit(ascii("ab"), new Outcome()));
+        assertTrue(writer.submit(ascii("cd"), new Outcome()));
+        assertTrue(writer.submit(ascii("ef"), last)); // would exceed 4 bytes: next packet
+        writer.start(executor);
+        assertTrue(last.await());
+        assertTrue(last.written);
+        assertEquals("abcdef", read(transport.robotInput(), 6));
+        assertEquals(2, stats.packets.get());
+        assertEquals(3, stats.written.get());
+        writer.stop();
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() {
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.capacity = 2;
+        SerialWriter.Stats stats = new SerialWriter.Stats();
+        SerialWriter writer = new SerialWriter(new ByteArrayOutputStream(), settings, stats);
+        // not started, so nothing drains the queue
+        assertTrue(writer.submit(ascii("a"), new Outcome()));
+        assertTrue(writer.submit(ascii("b"), new Outcome()));
+        assertFalse(writer.submit(ascii("c"), new Outcome()));
+        assertFalse(writer.submit(ascii("d"), new Outcome()));
+        assertEquals(2, stats.rejected.get());
+        assertEquals(2, writer.queueDepth());
+    }
+
+    @Test
+    public void blockPolicyGivesUpAfterTimeout() {
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.capacity = 1;
+        settings.overflow = SerialWriter.Overflow.BLOCK;
+        settings.blockTimeoutMs = 50;
+        SerialWriter.Stats stats = new SerialWriter.Stats();
+        SerialWriter writer = new SerialWriter(new ByteArrayOutputStream(), settings, stats);
+        assertTrue(writer.submit(ascii("a"), new Outcome()));
+        long start = System.nanoTime();
+        assertFalse(writer.submit(ascii("b"), new Outcome()));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(1, stats.rejected.get());
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws Exception {
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.capacity = 1;
+        settings.overflow = SerialWriter.Overflow.BLOCK;
+        settings.blockTimeoutMs = 2000;
+        final SerialWriter writer = new SerialWriter(new ByteArrayOutputStream(), settings, new SerialWriter.Stats());
+        assertTrue(writer.submit(ascii("a"), new Outcome()));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                writer.start(executor); // takes "a", making room
+            }
+        });
+        Outcome second = new Outcome();
+        assertTrue(writer.submit(ascii("b"), second));
+        assertTrue(second.await());
+        assertTrue(second.written);
+        writer.stop();
+    }
+
+    @Test
+    public void stopFailsCommandCarriedOverFromCoalescing() throws Exception {
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.coalesceWindowMs = 50;
+        settings.coalesceMaxBytes = 4;
+        StalledStream out = new StalledStream();
+        SerialWriter writer = new SerialWriter(out, settings, new SerialWriter.Stats());
+        Outcome first = new Outcome();
+        Outcome carried = new Outcome();
+        assertTrue(writer.submit(ascii("abc"), first));
+        assertTrue(writer.submit(ascii("defg"), carried)); // does not fit next to "abc": carried over
+        writer.start(executor);
+        assertTrue(out.writing.await(2, TimeUnit.SECONDS));
+        writer.stop();
+        out.release.countDown();
+
+        assertTrue(first.await());
+        assertTrue(first.written);
+        assertTrue("carried command never completed", carried.await());
+        assertNotNull(carried.error);
+        assertEquals("Not connected", carried.error.getMessage());
+    }
+
+    @Test
+    public void statsResetClearsCounters() {
+        SerialWriter.Stats stats = new SerialWriter.Stats();
+        stats.latency.record(300);
+        stats.written.set(3);
+        stats.bytes.set(42);
+        stats.rejected.set(1);
+        stats.packets.set(2);
+        stats.reset();
+        assertEquals(0, stats.latency.count());
+        assertEquals(0, stats.written.get());
+        assertEquals(0, stats.bytes.get());
+        assertEquals(0, stats.rejected.get());
+        assertEquals(0, stats.packets.get());
+    }
+}
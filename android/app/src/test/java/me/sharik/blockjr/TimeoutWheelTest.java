@@ -0,0 +1,83 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimeoutWheelTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void firesAfterDelay() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel(scheduler, 10, 8);
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(countDown(fired), 30);
+        assertEquals(1, wheel.pending());
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void delayLongerThanOneTurnWaitsForRounds() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel(scheduler, 5, 4); // one turn is 20 ms
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(countDown(fired), 60);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(55));
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel(scheduler, 5, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        TimeoutWheel.Handle handle = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 20);
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(countDown(later), 50);
+        assertTrue(handle.cancel());
+        assertFalse(handle.cancel());
+        assertEquals(1, wheel.pending());
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void cannotCancelAfterFiring() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel(scheduler, 5, 8);
+        CountDownLatch fired = new CountDownLatch(1);
+        TimeoutWheel.Handle handle = wheel.schedule(countDown(fired), 5);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertFalse(handle.cancel());
+        assertEquals(0, wheel.pending());
+    }
+}
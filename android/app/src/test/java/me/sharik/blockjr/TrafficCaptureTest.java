@@ -0,0 +1,178 @@
+package me.sharik.blockjr;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TrafficCaptureTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void roundTripsAcrossRegions() throws IOException {
+        File file = folder.newFile("a.bjcap");
+        TrafficCapture capture = new TrafficCapture(file, TrafficCapture.DEFAULT_MAX_BYTES);
+        byte[] big = new byte[TrafficCapture.REGION_BYTES + 100];
+        Arrays.fill(big, (byte) 7);
+        capture.append(TrafficCapture.WRITE, ascii("xup(3)"), 1, 5);
+        capture.append(TrafficCapture.READ, big, 0, big.length);
+        capture.append(TrafficCapture.READ, ascii("ok\n"), 0, 3);
+        capture.close();
+        assertEquals(3, capture.records());
+        assertEquals(capture.bytes(), file.length());
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        assertEquals(3, records.size());
+        assertEquals(TrafficCapture.WRITE, records.get(0).kind);
+        assertArrayEquals(ascii("up(3)"), records.get(0).data);
+        assertArrayEquals(big, records.get(1).data);
+        assertArrayEquals(ascii("ok\n"), records.get(2).data);
+        assertTrue(records.get(2).nanos >= records.get(0).nanos);
+    }
+
+    @Test
+    public void readsCaptureThatWasNeverClosed() throws IOException {
+        File file = folder.newFile("crash.bjcap");
+        TrafficCapture capture = new TrafficCapture(file, TrafficCapture.DEFAULT_MAX_BYTES);
+        try {
+            capture.append(TrafficCapture.READ, ascii("a"), 0, 1);
+            capture.append(TrafficCapture.READ, ascii("bc"), 0, 2);
+            // the mapped tail is still zero: reading stops after the last record
+            assertEquals(2, TrafficCapture.read(file).size());
+        } finally {
+            capture.close();
+        }
+    }
+
+    @Test
+    public void dropsRecordsBeyondLimit() throws IOException {
+        File file = folder.newFile("small.bjcap");
+        TrafficCapture capture = new TrafficCapture(file, TrafficCapture.HEADER_BYTES + TrafficCapture.RECORD_HEADER_BYTES + 3);
+        capture.append(TrafficCapture.READ, ascii("abc"), 0, 3);
+        capture.append(TrafficCapture.READ, ascii("d"), 0, 1);
+        capture.close();
+        assertEquals(1, capture.records());
+        assertEquals(1, capture.dropped());
+        assertEquals(1, TrafficCapture.read(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("other.txt");
+        OutputStream out = new FileOutputStream(file);
+        out.write(ascii("not a capture"));
+        out.close();
+        TrafficCapture.read(file);
+    }
+
+    @Test
+    public void capturesBothDirectionsAndReplaysReads() throws Exception {
+        File file = folder.newFile("link.bjcap");
+        AtomicReference<TrafficCapture> ref = new AtomicReference<>(new TrafficCapture(file, TrafficCapture.DEFAULT_MAX_BYTES));
+        LoopbackTransport loopback = new LoopbackTransport();
+        CapturingTransport transport = new CapturingTransport(loopback, ref);
+        transport.connect();
+        transport.getOutputStream().write(ascii("up(1)\n"));
+        loopback.robotOutput().write(ascii("ok 1\n"));
+        byte[] buf = new byte[16];
+        InputStream in = transport.getInputStream();
+        int n = 0;
+        while (n < 5)
+            n += in.read(buf, n, buf.length - n);
+        ref.getAndSet(null).close();
+        transport.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        assertEquals(TrafficCapture.WRITE, records.get(0).kind);
+        assertArrayEquals(ascii("up(1)\n"), records.get(0).data);
+
+        Listener listener = new Listener();
+        SerialSocket socket = new SerialSocket(new ReplayTransport(records, 0), executor,
+                new SerialWriter.Settings(), new SerialWriter.Stats());
+        socket.connect(listener);
+        assertTrue(listener.ended.await(2, TimeUnit.SECONDS)); // end of capture ends the link
+        assertEquals("ok 1\n", listener.text());
+    }
+
+    @Test
+    public void replayKeepsOriginalPace() throws Exception {
+        List<TrafficCapture.Record> records = Arrays.asList(
+                new TrafficCapture.Record(TrafficCapture.READ, 0, ascii("a")),
+                new TrafficCapture.Record(TrafficCapture.WRITE, 10_000_000L, ascii("ignored")),
+                new TrafficCapture.Record(TrafficCapture.READ, 100_000_000L, ascii("b")));
+        ReplayTransport transport = new ReplayTransport(records, 2); // 100 ms at double speed
+        transport.connect();
+        long start = System.nanoTime();
+        InputStream in = transport.getInputStream();
+        assertEquals('a', in.read());
+        assertEquals('b', in.read());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsedMs, elapsedMs >= 45);
+        assertEquals(-1, in.read());
+    }
+
+    private static class Listener implements SerialListener {
+        final CountDownLatch ended = new CountDownLatch(1);
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public void onSerialConnect() {
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+            ended.countDown();
+        }
+
+        @Override
+        public synchronized void onSerialRead(byte[] data) {
+            received.write(data, 0, data.length);
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            for (byte[] data : datas)
+                onSerialRead(data);
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            ended.countDown();
+        }
+
+        synchronized String text() {
+            return new String(received.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
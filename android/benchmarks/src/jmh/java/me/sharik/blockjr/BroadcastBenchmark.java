@@ -0,0 +1,120 @@
+package me.sharik.blockjr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until a program reached a full piconet of loopback robots: one write after the other, each
+ * awaited like the JS loop did, against one {@link Broadcast} over the robots' writer threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    private static final int ROBOTS = 7;
+    private static final byte[] PROGRAM = "up(3)_delay(2)_down(1)_up(0)_delay(5)\n".getBytes();
+
+    private ExecutorService executor;
+    private final List<String> addresses = new ArrayList<>();
+    private final List<SerialSocket> sockets = new ArrayList<>();
+    private Broadcast.Sender sender;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        executor = Executors.newCachedThreadPool(new SerialThreadFactory("bench"));
+        for (int i = 0; i < ROBOTS; i++) {
+            final LoopbackTransport transport = new LoopbackTransport("00:00:00:00:00:0" + i, 4096);
+            SerialSocket socket = new SerialSocket(transport, executor, new SerialWriter.Settings(), new SerialWriter.Stats());
+            final CountDownLatch connected = new CountDownLatch(1);
+            socket.connect(new SerialListener() {
+                @Override public void onSerialConnect() { connected.countDown(); }
+                @Override public void onSerialConnectError(Exception e) {}
+                @Override public void onSerialRead(byte[] data) {}
+                @Override public void onSerialRead(ArrayDeque<byte[]> datas) {}
+                @Override public void onSerialIoError(Exception e) {}
+            });
+            connected.await();
+            // robot side: discard everything the app writes
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] sink = new byte[4096];
+                    InputStream in = transport.robotInput();
+                    try {
+                        //noinspection StatementWithEmptyBody
+                        while (in.read(sink, 0, sink.length) >= 0) {
+                        }
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            addresses.add(transport.getAddress());
+            sockets.add(socket);
+        }
+        sender = new Broadcast.Sender() {
+            @Override
+            public boolean send(String address, byte[] data, SerialWriter.Callback callback) throws IOException {
+                return sockets.get(addresses.indexOf(address)).write(data, callback);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (SerialSocket socket : sockets)
+            socket.disconnect();
+        executor.shutdownNow();
+    }
+
+    /** baseline: await each robot's write before the next */
+    @Benchmark
+    public void sequentialWrites() throws Exception {
+        for (SerialSocket socket : sockets) {
+            final CountDownLatch written = new CountDownLatch(1);
+            socket.write(PROGRAM, new SerialWriter.Callback() {
+                @Override
+                public void onWritten() {
+                    written.countDown();
+                }
+
+                @Override
+                public void onFailed(IOException e) {
+                    written.countDown();
+                }
+            });
+            written.await();
+        }
+    }
+
+    @Benchmark
+    public long broadcast() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        Broadcast b = new Broadcast(PROGRAM, addresses, new Broadcast.Listener() {
+            @Override
+            public void onComplete(Broadcast broadcast) {
+                done.countDown();
+            }
+        });
+        b.start(sender);
+        done.await();
+        return b.startSkewNanos();
+    }
+}
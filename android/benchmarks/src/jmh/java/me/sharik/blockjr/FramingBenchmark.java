@@ -0,0 +1,76 @@
+package me.sharik.blockjr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the native framers over a 16 KiB stream of short robot responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FramingBenchmark {
+
+    @Param({"line", "length", "cobs", "slip"})
+    public String mode;
+
+    private byte[] stream;
+    private SerialFramer framer;
+
+    @Setup
+    public void setup() {
+        framer = SerialFramer.create(mode, (byte) '\n', 1, SerialFramer.DEFAULT_MAX_FRAME_BYTES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; out.size() < 16 * 1024; i++) {
+            byte[] frame = ("ok " + i + " dist=" + (i % 200)).getBytes(StandardCharsets.US_ASCII);
+            encode(frame, out);
+        }
+        stream = out.toByteArray();
+    }
+
+    private void encode(byte[] frame, ByteArrayOutputStream out) {
+        switch (mode) {
+            case "line":
+                out.write(frame, 0, frame.length);
+                out.write('\n');
+                break;
+            case "length":
+                out.write(frame.length);
+                out.write(frame, 0, frame.length);
+                break;
+            case "cobs":
+                // frames contain no zero bytes: one code block per frame
+                out.write(frame.length + 1);
+                out.write(frame, 0, frame.length);
+                out.write(0);
+                break;
+            case "slip":
+                out.write(frame, 0, frame.length);
+                out.write(SlipFramer.END);
+                break;
+            default:
+                throw new IllegalArgumentException(mode);
+        }
+    }
+
+    @Benchmark
+    public void feed(final Blackhole bh) {
+        framer.feed(stream, 0, stream.length, new SerialFramer.FrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int off, int len) {
+                bh.consume(len);
+            }
+        });
+    }
+}
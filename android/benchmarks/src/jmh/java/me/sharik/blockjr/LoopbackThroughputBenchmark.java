@@ -0,0 +1,99 @@
+package me.sharik.blockjr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end through SerialSocket over a loopback: write-to-flush of a command burst, with and
+ * without write coalescing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoopbackThroughputBenchmark {
+
+    @Param({"0", "2"})
+    public long coalesceWindowMs;
+
+    private static final int BURST = 32;
+    private static final byte[] COMMAND = "up(1)\n".getBytes();
+
+    private ExecutorService executor;
+    private LoopbackTransport transport;
+    private SerialSocket socket;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        executor = Executors.newCachedThreadPool(new SerialThreadFactory("bench"));
+        transport = new LoopbackTransport();
+        SerialWriter.Settings settings = new SerialWriter.Settings();
+        settings.coalesceWindowMs = coalesceWindowMs;
+        socket = new SerialSocket(transport, executor, settings, new SerialWriter.Stats());
+        final CountDownLatch connected = new CountDownLatch(1);
+        socket.connect(new SerialListener() {
+            @Override public void onSerialConnect() { connected.countDown(); }
+            @Override public void onSerialConnectError(Exception e) {}
+            @Override public void onSerialRead(byte[] data) {}
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) {}
+            @Override public void onSerialIoError(Exception e) {}
+        });
+        connected.await();
+        // robot side: discard everything the app writes
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] sink = new byte[4096];
+                InputStream in = transport.robotInput();
+                try {
+                    //noinspection StatementWithEmptyBody
+                    while (in.read(sink, 0, sink.length) >= 0) {
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        socket.disconnect();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void commandBurst() throws Exception {
+        final CountDownLatch done = new CountDownLatch(BURST);
+        SerialWriter.Callback callback = new SerialWriter.Callback() {
+            @Override
+            public void onWritten() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < BURST; i++) {
+            while (!socket.write(COMMAND, callback))
+                Thread.yield(); // queue full, let the writer catch up
+        }
+        done.await();
+    }
+}
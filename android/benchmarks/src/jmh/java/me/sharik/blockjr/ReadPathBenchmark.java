@@ -0,0 +1,78 @@
+package me.sharik.blockjr;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-chunk cost of the read path: decoding, copying and building the "data" event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadPathBenchmark {
+
+    @Param({"64", "1024"})
+    public int chunkSize;
+
+    private byte[] buffer;
+    private byte[] drain;
+    private ByteArrayInputStream in;
+    private ByteRingBuffer ring;
+    private Utf8StreamDecoder decoder;
+
+    @Setup
+    public void setup() {
+        StringBuilder telemetry = new StringBuilder();
+        while (telemetry.length() < chunkSize)
+            telemetry.append("dist=").append(telemetry.length() % 97).append(";temp=21.5°\n");
+        buffer = Arrays.copyOf(telemetry.toString().getBytes(StandardCharsets.UTF_8), chunkSize);
+        drain = new byte[chunkSize];
+        in = new ByteArrayInputStream(buffer);
+        ring = new ByteRingBuffer(SerialReadPump.DEFAULT_CAPACITY);
+        decoder = new Utf8StreamDecoder();
+    }
+
+    /** baseline: what the plugin's read thread did per in.read() */
+    @Benchmark
+    public String newStringPerChunk() {
+        return new String(buffer, 0, chunkSize, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String streamingDecoder() {
+        return decoder.decode(buffer, 0, chunkSize);
+    }
+
+    /** baseline: SerialSocket.run copied every read into a fresh array */
+    @Benchmark
+    public byte[] copyOfPerRead() {
+        return Arrays.copyOf(buffer, chunkSize);
+    }
+
+    @Benchmark
+    public int ringReadAndDrain() throws Exception {
+        in.reset();
+        ring.readFrom(in);
+        return ring.drainTo(drain, 0, drain.length);
+    }
+
+    /** JSObject extends JSONObject, so this is the event allocation per notifyListeners("data") */
+    @Benchmark
+    public JSONObject dataEvent() {
+        JSONObject o = new JSONObject();
+        o.put("value", new String(buffer, 0, chunkSize, StandardCharsets.UTF_8));
+        return o;
+    }
+}
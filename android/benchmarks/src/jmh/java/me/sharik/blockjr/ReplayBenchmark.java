@@ -0,0 +1,111 @@
+package me.sharik.blockjr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole capture replayed without delays through SerialSocket's read path, then framing and
+ * decoding as the plugin does before notifyListeners. Replays the capture given with
+ * {@code -Pcapture=path/to/file.bjcap} (pulled from a device, see startCapture), otherwise a
+ * synthetic one of telemetry lines split into irregular chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+
+    @Param({"raw", "line"})
+    public String framing;
+
+    private ExecutorService executor;
+    private List<TrafficCapture.Record> records;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        executor = Executors.newCachedThreadPool(new SerialThreadFactory("bench"));
+        String path = System.getProperty("blockjr.capture");
+        records = TrafficCapture.read(path != null ? new File(path) : synthesize());
+    }
+
+    private static File synthesize() throws IOException {
+        File file = File.createTempFile("replay", ".bjcap");
+        file.deleteOnExit();
+        TrafficCapture capture = new TrafficCapture(file, TrafficCapture.DEFAULT_MAX_BYTES);
+        StringBuilder telemetry = new StringBuilder();
+        for (int i = 0; telemetry.length() < 256 * 1024; i++)
+            telemetry.append("ok ").append(i).append(" dist=").append(i % 200).append(";temp=21.5°\n");
+        byte[] stream = telemetry.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] command = "up(1)_delay(1)\n".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(42);
+        for (int off = 0, n = 0; off < stream.length; n++) {
+            int len = Math.min(1 + random.nextInt(96), stream.length - off); // RFCOMM reads arrive ragged
+            capture.append(TrafficCapture.READ, stream, off, len);
+            off += len;
+            if (n % 64 == 0)
+                capture.append(TrafficCapture.WRITE, command, 0, command.length);
+        }
+        capture.close();
+        return file;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void replay(final Blackhole bh) throws Exception {
+        final SerialFramer framer = "line".equals(framing)
+                ? SerialFramer.create("line", (byte) '\n', 1, SerialFramer.DEFAULT_MAX_FRAME_BYTES)
+                : null;
+        final Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+        final SerialFramer.FrameListener frames = new SerialFramer.FrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int off, int len) {
+                bh.consume(decoder.decodeFrame(frame, off, len));
+            }
+        };
+        final CountDownLatch done = new CountDownLatch(1);
+        SerialSocket socket = new SerialSocket(new ReplayTransport(records, 0), executor,
+                new SerialWriter.Settings(), new SerialWriter.Stats());
+        socket.connect(new SerialListener() {
+            @Override public void onSerialConnect() {}
+            @Override public void onSerialConnectError(Exception e) { done.countDown(); }
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) {}
+
+            @Override
+            public void onSerialRead(byte[] data) {
+                if (framer != null)
+                    framer.feed(data, 0, data.length, frames);
+                else
+                    bh.consume(decoder.decode(data, 0, data.length));
+            }
+
+            @Override
+            public void onSerialIoError(Exception e) { // end of the capture
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+}
@@ -6,6 +6,9 @@ import { ensureBluetoothPermissions } from '../utils/ensureBluetoothPermissions'
 interface DeviceItem {
   id: string;
   name?: string;
+  rssi?: number;
+  bonded?: boolean;
+  lastConnected?: number;
 }
 
 const BluetoothConnector: React.FC = () => {
@@ -30,6 +33,10 @@ const BluetoothConnector: React.FC = () => {
 
         await bluetoothService.initialize();
 
+        // known robots are connectable right away, without a scan
+        const known = await bluetoothService.getKnownDevices();
+        setDevices(known.devices);
+
         // Start listeners
         await bluetoothService.startDataListener((data: string) => {
           setReceivedData((prev) => [...prev, data]);
@@ -50,11 +57,10 @@ const BluetoothConnector: React.FC = () => {
           }
         });
 
-        // Check initial Bluetooth status (and keep UI consistent)
+        // the link may have outlived the previous WebView in the foreground service
         try {
-          const res: any = await (bluetoothService as any).isConnected ? await (bluetoothService as any).isConnected() : { connected: false };
-          // best-effort: some flows keep track elsewhere; we still check enable state:
-          const enabledCheck: any = await (bluetoothService as any).isConnected ? await (bluetoothService as any).isConnected() : null;
+          const { state, address } = await bluetoothService.getState();
+          if (state === 'connected' && address) setConnectedDevice(address);
         } catch {
           // ignore
         }
@@ -70,12 +76,12 @@ const BluetoothConnector: React.FC = () => {
 
     init();
 
-    // Cleanup listeners on unmount
+    // Cleanup listeners on unmount; the links stay up in the foreground service
     return () => {
       bluetoothService.stopDataListener().catch(() => {});
       bluetoothService.stopDisconnectListener().catch(() => {});
       bluetoothService.stopEnabledListener().catch(() => {});
-      bluetoothService.disconnect().catch(() => {});
+      bluetoothService.stopScan().catch(() => {});
     };
   }, []);
 
@@ -88,34 +94,29 @@ const BluetoothConnector: React.FC = () => {
     });
   }, [isBusy]);
 
-  // Scan action (used by button)
+  // Scan action (used by button): devices appear as they are found, so one can be tapped mid-scan
   const scanForDevices = useCallback(async () => {
-    if (isBusy) return;
-    setIsBusy(true);
+    if (isBusy || isScanning) return;
     setIsScanning(true);
     setError(null);
     try {
       const ok = await ensureBluetoothPermissions();
       if (!ok) {
         setError('Permissions required / Bluetooth not enabled');
+        setIsScanning(false);
         return;
       }
 
-      const discoveredDevices = await bluetoothService.scanForDevices();
-      setDevices(discoveredDevices);
-      if (!discoveredDevices || discoveredDevices.length === 0) {
-        setError('No devices found.');
-      } else {
-        setError(null);
-      }
+      await bluetoothService.startScan(
+        (device) => setDevices((prev) => (prev.some((d) => d.id === device.id) ? prev : [...prev, device])),
+        () => setIsScanning(false),
+      );
     } catch (e: any) {
       console.error('Scan failed', e);
       setError(`Scan failed: ${e?.message ?? String(e)}`);
-    } finally {
       setIsScanning(false);
-      setIsBusy(false);
     }
-  }, [isBusy]);
+  }, [isBusy, isScanning]);
 
   const connectToDevice = useCallback(async (deviceId: string) => {
     if (isBusy) return;
@@ -137,10 +138,11 @@ const BluetoothConnector: React.FC = () => {
   }, [isBusy]);
 
   const disconnect = useCallback(async () => {
-    if (isBusy) return;
+    if (isBusy || !connectedDevice) return;
     setIsBusy(true);
     try {
-      await bluetoothService.disconnect();
+      // only this connector's robot; others connected through the multi-robot API stay up
+      await bluetoothService.disconnect(connectedDevice);
       setConnectedDevice(null);
       setReceivedData([]);
     } catch (e: any) {
@@ -148,7 +150,7 @@ const BluetoothConnector: React.FC = () => {
     } finally {
       setIsBusy(false);
     }
-  }, [isBusy]);
+  }, [isBusy, connectedDevice]);
 
   return (
     <div className="absolute top-4 right-4 z-50">
@@ -214,7 +216,7 @@ const BluetoothConnector: React.FC = () => {
                   disabled={isBusy}
                   className="w-full text-left px-2 py-1 rounded hover:bg-blue-50 text-sm text-gray-700 disabled:opacity-50"
                 >
-                  {device.name ?? 'Unknown'} ({device.id.slice(0, 8)}...)
+                  {device.name ?? 'Unknown'} ({device.id.slice(0, 8)}...){device.lastConnected ? ' ★' : ''}
                 </button>
               ))}
             </div>
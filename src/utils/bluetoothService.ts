@@ -4,13 +4,27 @@ import { Capacitor } from '@capacitor/core';
 const BluetoothSerial = Capacitor.registerPlugin('BluetoothSerial');
 
 const isNative = Capacitor.getPlatform() !== 'web';
+// the robot this UI drives; the native side can hold further connections (getConnections)
 let connectedDeviceId: string | null = null;
 
 let dataListener: { remove: () => void } | null = null;
 let disconnectListener: { remove: () => void } | null = null;
 let enabledListener: { remove: () => void } | null = null;
+let deviceFoundListener: { remove: () => void } | null = null;
+let scanFinishedListener: { remove: () => void } | null = null;
+let stateListener: { remove: () => void } | null = null;
 
-interface DeviceItem { id: string; name?: string; }
+export type ConnectionState = 'idle' | 'connecting' | 'connected' | 'reconnecting' | 'closed';
+
+/**
+ * Mirrors the native connection state machine of every robot by address, pushed by 'connectionState' events
+ * once initialize() ran, so isConnected() answers without a bridge round-trip. null until known.
+ */
+let connectionStates: Record<string, ConnectionState> | null = null;
+
+export interface ConnectionInfo { address: string; name?: string; state: ConnectionState; since: number; }
+
+interface DeviceItem { id: string; name?: string; rssi?: number; bonded?: boolean; lastConnected?: number; }
 
 /**
  * Single in-flight scan promise so multiple quick calls reuse the same scan.
@@ -26,6 +40,7 @@ async function initialize(): Promise<void> {
       await BluetoothSerial.enable();
     }
     console.log('[BT] initialized, enabled:', enabled);
+    await startStateListener();
   } catch (e) {
     console.error('[BT] Bluetooth initialization failed', e);
     throw e;
@@ -109,18 +124,80 @@ async function scanForDevices(): Promise<DeviceItem[]> {
   return scanningPromise;
 }
 
+/**
+ * Bonded and previously connected devices, most recently connected first; no discovery involved.
+ */
+async function getKnownDevices(): Promise<{ devices: DeviceItem[]; lastConnectedId: string | null }> {
+  if (!isNative) return { devices: [], lastConnectedId: null };
+  try {
+    const res: any = await BluetoothSerial.getKnownDevices();
+    const devices: DeviceItem[] = (res?.devices ?? []).map((d: any) => ({
+      id: d.id,
+      name: d.name ?? undefined,
+      bonded: Boolean(d.bonded),
+      lastConnected: d.lastConnected || undefined,
+    }));
+    return { devices, lastConnectedId: res?.lastConnectedId ?? null };
+  } catch (e) {
+    console.warn('[BT] getKnownDevices failed', e);
+    return { devices: [], lastConnectedId: null };
+  }
+}
+
+/**
+ * Streaming discovery: onDevice fires for every device as soon as it is found,
+ * onFinished once discovery ends (finished, timed out or stopped).
+ */
+async function startScan(onDevice: (device: DeviceItem) => void, onFinished: () => void): Promise<void> {
+  if (!isNative) return;
+  await removeScanListeners();
+  deviceFoundListener = await BluetoothSerial.addListener('deviceFound', (ev: any) => {
+    onDevice({ id: ev.id, name: ev.name ?? undefined, rssi: ev.rssi });
+  });
+  scanFinishedListener = await BluetoothSerial.addListener('scanFinished', () => {
+    removeScanListeners().catch(() => {});
+    onFinished();
+  });
+  try {
+    await BluetoothSerial.startScan();
+  } catch (e) {
+    console.error('[BT] startScan failed', e);
+    await removeScanListeners();
+    throw e;
+  }
+}
+
+async function stopScan(): Promise<void> {
+  if (!isNative) return;
+  try {
+    await BluetoothSerial.stopScan();
+  } catch (e) {
+    console.warn('[BT] stopScan failed', e);
+  }
+}
+
+async function removeScanListeners(): Promise<void> {
+  const listeners = [deviceFoundListener, scanFinishedListener];
+  deviceFoundListener = null;
+  scanFinishedListener = null;
+  for (const l of listeners) {
+    try {
+      await l?.remove();
+    } catch (e) { /* ignore */ }
+  }
+}
+
 async function connect(deviceId: string): Promise<boolean> {
   if (!isNative) return false;
   console.log('[BT] trying to connect to', deviceId);
   try {
-    await BluetoothSerial.connect({ address: deviceId });
-    connectedDeviceId = deviceId;
-    console.log('[BT] connect succeeded');
-    const { connected } = await BluetoothSerial.isConnected();
+    const { connected }: any = await BluetoothSerial.connect({ address: deviceId });
     if (!connected) {
       connectedDeviceId = null;
       return false;
     }
+    connectedDeviceId = deviceId;
+    console.log('[BT] connect succeeded');
     return true;
   } catch (error) {
     console.error('[BT] Connection failed', error);
@@ -129,23 +206,27 @@ async function connect(deviceId: string): Promise<boolean> {
   }
 }
 
-async function disconnect(): Promise<void> {
+/**
+ * Disconnects one robot, or every robot without deviceId.
+ */
+async function disconnect(deviceId?: string): Promise<void> {
   if (!isNative) return;
-  console.log('[BT] disconnect requested');
+  console.log('[BT] disconnect requested', deviceId ?? 'all');
   try {
-    await BluetoothSerial.disconnect();
+    await BluetoothSerial.disconnect(deviceId ? { address: deviceId } : {});
   } catch (e) {
     console.warn('[BT] disconnect error', e);
   } finally {
-    connectedDeviceId = null;
+    if (!deviceId || deviceId === connectedDeviceId) connectedDeviceId = null;
   }
 }
 
-async function isConnected(): Promise<boolean> {
+async function isConnected(deviceId: string | null = connectedDeviceId): Promise<boolean> {
   if (!isNative) return false;
-  if (!connectedDeviceId) return false;
+  if (!deviceId) return false;
+  if (connectionStates !== null) return connectionStates[deviceId] === 'connected';
   try {
-    const { connected } = await BluetoothSerial.isConnected();
+    const { connected } = await BluetoothSerial.isConnected({ address: deviceId });
     if (!connected) connectedDeviceId = null;
     return connected;
   } catch (e) {
@@ -162,13 +243,98 @@ async function sendString(text: string): Promise<void> {
   const payload = (text ?? '') + '\n';
   console.log('[BT] write ->', { value: payload });
   try {
-    await BluetoothSerial.write({ value: payload });
+    await BluetoothSerial.write({ address: connectedDeviceId, value: payload });
   } catch (e) {
     console.error('[BT] write failed', e);
     throw e;
   }
 }
 
+/**
+ * Check and write in one bridge call; resolves false instead of throwing when not connected.
+ */
+async function sendIfConnected(text: string): Promise<boolean> {
+  if (!isNative) return false;
+  try {
+    if (!connectedDeviceId) return false;
+    const res: any = await BluetoothSerial.sendIfConnected({ address: connectedDeviceId, value: (text ?? '') + '\n' });
+    return Boolean(res?.sent);
+  } catch (e) {
+    console.error('[BT] sendIfConnected failed', e);
+    throw e;
+  }
+}
+
+export interface BroadcastResult {
+  robots: { address: string; sent: boolean; queuedMs?: number; startMs?: number; writtenMs?: number; error?: string }[];
+  sent: number;
+  startSkewMs: number;
+  writtenSkewMs: number;
+}
+
+/**
+ * Sends the same line to several robots at once (default: every connected robot), queued natively on
+ * each robot's writer in one bridge call instead of one awaited write per robot.
+ */
+async function broadcast(text: string, deviceIds?: string[]): Promise<BroadcastResult> {
+  if (!isNative) throw new Error('Not native platform');
+  const payload = (text ?? '') + '\n';
+  try {
+    const res: any = await BluetoothSerial.broadcast(deviceIds ? { addresses: deviceIds, value: payload } : { value: payload });
+    console.log('[BT] broadcast ->', { sent: res?.sent, startSkewMs: res?.startSkewMs });
+    return res as BroadcastResult;
+  } catch (e) {
+    console.error('[BT] broadcast failed', e);
+    throw e;
+  }
+}
+
+/**
+ * State of one robot, by default of the robot connected last on the native side.
+ */
+async function getState(deviceId?: string): Promise<{ state: ConnectionState; address: string | null }> {
+  if (!isNative) return { state: 'idle', address: null };
+  const res: any = await BluetoothSerial.getState(deviceId ? { address: deviceId } : {});
+  if (res.address) connectionStates = { ...(connectionStates ?? {}), [res.address]: res.state };
+  return { state: res.state, address: res.address ?? null };
+}
+
+/**
+ * Every robot the native side is connecting, connected or reconnecting to.
+ */
+async function getConnections(): Promise<ConnectionInfo[]> {
+  if (!isNative) return [];
+  const res: any = await BluetoothSerial.getConnections();
+  return res?.connections ?? [];
+}
+
+/**
+ * Program format sent by runProgram: 'text' is the up(3)_delay(2) line the current robot firmware parses,
+ * 'binary' the compact opcode stream produced by the native BlockProgramCompiler.
+ */
+export type ProgramFormat = 'text' | 'binary';
+export const PROGRAM_FORMAT: ProgramFormat = 'text';
+
+interface ProgramBlock { type: string; value?: number | string; }
+
+/**
+ * Compiles and sends a block chain natively in one bridge call.
+ */
+async function runProgram(blocks: ProgramBlock[], format: ProgramFormat = PROGRAM_FORMAT): Promise<{ bytes: number; ops: number }> {
+  if (!isNative) throw new Error('Not native platform');
+  if (!connectedDeviceId) throw new Error('Not connected');
+
+  const payload = blocks.filter(Boolean).map((b) => ({ type: b.type, value: b.value }));
+  try {
+    const res: any = await BluetoothSerial.runProgram({ address: connectedDeviceId, blocks: payload, format });
+    console.log('[BT] runProgram ->', res);
+    return { bytes: res?.bytes ?? 0, ops: res?.ops ?? 0 };
+  } catch (e) {
+    console.error('[BT] runProgram failed', e);
+    throw e;
+  }
+}
+
 /* --- listeners --- */
 
 export async function startDataListener(onData: (s: string) => void) {
@@ -177,6 +343,7 @@ export async function startDataListener(onData: (s: string) => void) {
   try {
     dataListener = await BluetoothSerial.addListener('data', (ev: any) => {
       console.log('[BT] data', ev);
+      if (ev.address && ev.address !== connectedDeviceId) return; // another robot
       onData(ev.value ?? ev.data ?? ev);
     });
     console.log('[BT] data listener registered');
@@ -200,6 +367,7 @@ export async function startDisconnectListener(onDisconnect: () => void) {
   try {
     disconnectListener = await BluetoothSerial.addListener('disconnect', (ev: any) => {
       console.log('[BT] disconnect event', ev);
+      if (ev.address && ev.address !== connectedDeviceId) return; // another robot
       connectedDeviceId = null;
       onDisconnect();
     });
@@ -233,6 +401,27 @@ export async function startEnabledListener(onEnabledChange: (enabled: boolean) =
   }
 }
 
+async function startStateListener() {
+  if (stateListener) return;
+  try {
+    stateListener = await BluetoothSerial.addListener('connectionState', (ev: any) => {
+      if (!ev.address) return;
+      connectionStates = { ...(connectionStates ?? {}), [ev.address]: ev.state };
+      const live = ev.state === 'connected' || ev.state === 'reconnecting';
+      if (live && !connectedDeviceId) connectedDeviceId = ev.address;
+      else if (!live && ev.address === connectedDeviceId) connectedDeviceId = null;
+    });
+    const known: Record<string, ConnectionState> = {};
+    for (const c of await getConnections()) known[c.address] = c.state;
+    connectionStates = { ...known, ...(connectionStates ?? {}) }; // events that arrived meanwhile are newer
+    const { state, address } = await getState();
+    if (state === 'connected') connectedDeviceId = address;
+  } catch (e) {
+    console.warn('[BT] connectionState listener failed', e);
+    connectionStates = null;
+  }
+}
+
 export async function stopEnabledListener() {
   if (!enabledListener) return;
   try {
@@ -245,10 +434,18 @@ export async function stopEnabledListener() {
 export default {
   initialize,
   scanForDevices,
+  getKnownDevices,
+  startScan,
+  stopScan,
   connect,
   disconnect,
   isConnected,
+  getState,
+  getConnections,
   sendString,
+  sendIfConnected,
+  broadcast,
+  runProgram,
   startDataListener,
   stopDataListener,
   startDisconnectListener,